@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+import javax.xml.datatype.DatatypeFactory;
+import net.tirasa.test.provisioningws.User;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mapping of the users returned by the service onto ConnId objects.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConnectorObjectBenchmark {
+
+    private static final int USERS = 1024;
+
+    private final ConnectorObjectMapper projected = ConnectorObjectMapper.forOptions(
+            new OperationOptionsBuilder().setAttributesToGet(ConnectorObjectMapper.SURNAME).build());
+
+    private final User[] users = new User[USERS];
+
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        final DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+        for (int i = 0; i < USERS; i++) {
+            final GregorianCalendar birthdate = new GregorianCalendar();
+            birthdate.setTimeInMillis(i * 86400000L);
+
+            users[i] = new User();
+            users[i].setInitials(String.format("U%07d", i));
+            users[i].setFirstname("Mario");
+            users[i].setSurname("Rossi");
+            users[i].setBirthdate(datatypeFactory.newXMLGregorianCalendar(birthdate));
+        }
+    }
+
+    @Benchmark
+    public ConnectorObject mapAll() {
+        next = (next + 1) & (USERS - 1);
+        return ConnectorObjectMapper.ALL.map(users[next]);
+    }
+
+    @Benchmark
+    public ConnectorObject mapProjected() {
+        next = (next + 1) & (USERS - 1);
+        return projected.map(users[next]);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end executeQuery against an in-process endpoint running UserServiceImpl.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ExecuteQueryBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int users;
+
+    private ServiceHarness harness;
+
+    private WebServiceConnector connector;
+
+    private WebServiceConnector partitioned;
+
+    private WebServiceConnector cached;
+
+    private Operand lookup;
+
+    private Operand search;
+
+    @Setup
+    public void setup() throws Exception {
+        harness = ServiceHarness.start(users);
+        connector = harness.connect(harness.configuration());
+
+        final WebServiceConfiguration partitionedConfiguration = harness.configuration();
+        partitionedConfiguration.setPartitions(String.valueOf(Runtime.getRuntime().availableProcessors()));
+        partitioned = harness.connect(partitionedConfiguration);
+
+        final WebServiceConfiguration cachedConfiguration = harness.configuration();
+        cachedConfiguration.setCacheTtl("60");
+        cached = harness.connect(cachedConfiguration);
+
+        final List<Operand> lookups = connector.createFilterTranslator(ObjectClass.ACCOUNT, null).
+                translate(FilterBuilder.equalTo(new Name(String.format("U%07d", users / 2))));
+        lookup = lookups.get(0);
+
+        final List<Operand> searches = connector.createFilterTranslator(ObjectClass.ACCOUNT, null).
+                translate(FilterBuilder.equalTo(AttributeBuilder.build("surname", "Rossi")));
+        search = searches.get(0);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connector.dispose();
+        partitioned.dispose();
+        cached.dispose();
+        harness.close();
+    }
+
+    private static ResultsHandler consume(final Blackhole blackhole) {
+        return new ResultsHandler() {
+
+            @Override
+            public boolean handle(final ConnectorObject object) {
+                blackhole.consume(object);
+                return true;
+            }
+        };
+    }
+
+    @Benchmark
+    public void fullScan(final Blackhole blackhole) {
+        connector.executeQuery(ObjectClass.ACCOUNT, null, consume(blackhole),
+                new OperationOptionsBuilder().build());
+    }
+
+    @Benchmark
+    public void fullScanNames(final Blackhole blackhole) {
+        connector.executeQuery(ObjectClass.ACCOUNT, null, consume(blackhole),
+                new OperationOptionsBuilder().setAttributesToGet(Name.NAME).build());
+    }
+
+    @Benchmark
+    public void fullScanPartitioned(final Blackhole blackhole) {
+        partitioned.executeQuery(ObjectClass.ACCOUNT, null, consume(blackhole),
+                new OperationOptionsBuilder().build());
+    }
+
+    @Benchmark
+    public void lookupByName(final Blackhole blackhole) {
+        connector.executeQuery(ObjectClass.ACCOUNT, lookup, consume(blackhole),
+                new OperationOptionsBuilder().build());
+    }
+
+    @Benchmark
+    public void lookupByNameCached(final Blackhole blackhole) {
+        cached.executeQuery(ObjectClass.ACCOUNT, lookup, consume(blackhole),
+                new OperationOptionsBuilder().build());
+    }
+
+    @Benchmark
+    public void searchBySurname(final Blackhole blackhole) {
+        connector.executeQuery(ObjectClass.ACCOUNT, search, consume(blackhole),
+                new OperationOptionsBuilder().build());
+    }
+}
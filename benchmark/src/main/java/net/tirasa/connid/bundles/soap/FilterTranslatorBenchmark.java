@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translation of typical ConnId filters by {@link WebServiceFilterTranslator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FilterTranslatorBenchmark {
+
+    private Filter equalsName;
+
+    private Filter orOfEquals;
+
+    private Filter birthdateRange;
+
+    private Filter mixed;
+
+    @Setup
+    public void setup() {
+        // the lookup issued by the IdM before every update
+        equalsName = FilterBuilder.equalTo(new Name("U0000042"));
+
+        // a batch of lookups, as a left-deep chain of ORs
+        orOfEquals = FilterBuilder.equalTo(new Name("U0000000"));
+        for (int i = 1; i < 20; i++) {
+            orOfEquals = FilterBuilder.or(orOfEquals, FilterBuilder.equalTo(new Name(String.format("U%07d", i))));
+        }
+
+        // age-based report
+        birthdateRange = FilterBuilder.and(
+                FilterBuilder.greaterThanOrEqualTo(AttributeBuilder.build("birthdate", 0L)),
+                FilterBuilder.lessThan(AttributeBuilder.build("birthdate", 946684800000L)));
+
+        // search form with several criteria, one negated
+        mixed = FilterBuilder.and(
+                FilterBuilder.and(
+                        FilterBuilder.startsWith(AttributeBuilder.build("surname", "Ro")),
+                        FilterBuilder.not(FilterBuilder.contains(AttributeBuilder.build("firstname", "ar")))),
+                FilterBuilder.or(
+                        FilterBuilder.greaterThan(AttributeBuilder.build("birthdate", 0L)),
+                        FilterBuilder.endsWith(AttributeBuilder.build("initials", "7"))));
+    }
+
+    @Benchmark
+    public List<Operand> equalsName() {
+        return new WebServiceFilterTranslator().translate(equalsName);
+    }
+
+    @Benchmark
+    public List<Operand> orOfEquals() {
+        return new WebServiceFilterTranslator().translate(orOfEquals);
+    }
+
+    @Benchmark
+    public List<Operand> birthdateRange() {
+        return new WebServiceFilterTranslator().translate(birthdateRange);
+    }
+
+    @Benchmark
+    public List<Operand> mixed() {
+        return new WebServiceFilterTranslator().translate(mixed);
+    }
+}
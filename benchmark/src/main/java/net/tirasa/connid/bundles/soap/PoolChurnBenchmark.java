@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.concurrent.TimeUnit;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookup latency on a long-lived connector while other instances of the same pool are created and disposed, as the
+ * ConnId pool does when it grows and evicts idle instances.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PoolChurnBenchmark {
+
+    private ServiceHarness harness;
+
+    private WebServiceConnector connector;
+
+    private Operand lookup;
+
+    @Setup
+    public void setup() throws Exception {
+        harness = ServiceHarness.start(1000);
+        connector = harness.connect(harness.configuration());
+        lookup = connector.createFilterTranslator(ObjectClass.ACCOUNT, null).
+                translate(FilterBuilder.equalTo(new Name("U0000500"))).get(0);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connector.dispose();
+        harness.close();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void lookup(final Blackhole blackhole) {
+        connector.executeQuery(ObjectClass.ACCOUNT, lookup, new ResultsHandler() {
+
+            @Override
+            public boolean handle(final ConnectorObject object) {
+                blackhole.consume(object);
+                return true;
+            }
+        }, new OperationOptionsBuilder().build());
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void resize() {
+        final WebServiceConnector pooled = harness.connect(harness.configuration());
+        pooled.checkAlive();
+        pooled.dispose();
+    }
+}
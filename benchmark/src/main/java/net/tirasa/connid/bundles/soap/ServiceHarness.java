@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the provisioning service in-process, in a class loader of its own: the service classes share their names with
+ * the client classes generated for the connector.
+ *
+ * The service is loaded from the unpacked "server" assembly of the service module, found under the directory given
+ * by the {@value #SERVICE_DIR} system property, or under {@code target/service}.
+ */
+final class ServiceHarness implements Closeable {
+
+    static final String SERVICE_DIR = "benchmark.service.dir";
+
+    static final String SERVICE_NAME = "net.tirasa.test.provisioningws.UserService";
+
+    private final URLClassLoader loader;
+
+    private final Closeable server;
+
+    private final String address;
+
+    private ServiceHarness(final URLClassLoader loader, final Closeable server, final String address) {
+        this.loader = loader;
+        this.server = server;
+        this.address = address;
+    }
+
+    /**
+     * Publishes the service, holding the given number of generated users, on a free local port.
+     */
+    static ServiceHarness start(final int users) throws Exception {
+        final File dir = new File(System.getProperty(SERVICE_DIR, "target/service"));
+        final File[] libs = new File(dir, "lib").listFiles();
+        if (libs == null) {
+            throw new IllegalStateException("Service assembly not found under " + dir.getAbsolutePath());
+        }
+
+        final List<URL> urls = new ArrayList<URL>();
+        urls.add(new File(dir, "classes").toURI().toURL());
+        for (File lib : libs) {
+            urls.add(lib.toURI().toURL());
+        }
+        final URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+
+        final String address = "http://localhost:" + freePort() + "/services/users";
+
+        final Thread current = Thread.currentThread();
+        final ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(loader);
+        try {
+            final Closeable server = (Closeable) loader.
+                    loadClass("net.tirasa.test.provisioningws.impl.StandaloneServer").
+                    getMethod("start", String.class, int.class).
+                    invoke(null, address, users);
+            return new ServiceHarness(loader, server, address);
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    WebServiceConfiguration configuration() {
+        final WebServiceConfiguration configuration = new WebServiceConfiguration();
+        configuration.setEndpoint(address);
+        configuration.setServicename(SERVICE_NAME);
+        return configuration;
+    }
+
+    /**
+     * Initializes a new connector on the service, with the given configuration.
+     */
+    WebServiceConnector connect(final WebServiceConfiguration configuration) {
+        final WebServiceConnector connector = new WebServiceConnector();
+        connector.init(configuration);
+        return connector;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final Thread current = Thread.currentThread();
+        final ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(loader);
+        try {
+            server.close();
+        } finally {
+            current.setContextClassLoader(previous);
+            loader.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import net.tirasa.test.provisioningws.User;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Users recently read by key, shared by all connections with the same endpoint and cache settings.
+ *
+ * Entries expire after the configured time to live; beyond the configured number of entries, the least recently used
+ * one is evicted. Writes through any of the connections invalidate the affected entries, while changes made on the
+ * service by other clients are seen only once the entries expire.
+ */
+final class AccountCache {
+
+    private static final Log LOG = Log.getLog(AccountCache.class);
+
+    /**
+     * Guards {@link #CACHES} and the reference counts.
+     */
+    private static final Object LOCK = new Object();
+
+    private static final Map<String, AccountCache> CACHES = new HashMap<String, AccountCache>();
+
+    private static final class Entry {
+
+        private final User user;
+
+        private final long expires;
+
+        Entry(final User user, final long expires) {
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Returns the cache shared by all connections with the same endpoint and cache settings, creating it on first
+     * use; every call must be matched by a {@link #release(AccountCache)} call.
+     */
+    static AccountCache acquire(final WebServiceConfiguration configuration) {
+        final String key = configuration.getEndpoint()
+                + '|' + configuration.getCacheTtl()
+                + '|' + configuration.getCacheMaxEntries();
+
+        synchronized (LOCK) {
+            AccountCache cache = CACHES.get(key);
+            if (cache == null) {
+                cache = new AccountCache(key, configuration);
+                CACHES.put(key, cache);
+            }
+
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * Releases the given cache, dropping it when no other connection uses it.
+     */
+    static void release(final AccountCache cache) {
+        synchronized (LOCK) {
+            if (--cache.references == 0) {
+                CACHES.remove(cache.key);
+                LOG.ok("Dropping account cache for {0}: {1} hits, {2} misses",
+                        cache.key, cache.hits.get(), cache.misses.get());
+            }
+        }
+    }
+
+    private final String key;
+
+    private int references;
+
+    private final long ttl;
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Incremented on every invalidation, guarded by {@link #entries}: users read before an invalidation are not
+     * cached, as they may predate the write.
+     */
+    private long epoch;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private AccountCache(final String key, final WebServiceConfiguration configuration) {
+        this.key = key;
+        this.ttl = TimeUnit.SECONDS.toNanos(Long.parseLong(configuration.getCacheTtl()));
+
+        final int maxEntries = Integer.parseInt(configuration.getCacheMaxEntries());
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -3367047011386006226L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached user with the given initials, or null if missing or expired
+     */
+    User get(final String initials) {
+        synchronized (entries) {
+            final Entry entry = entries.get(initials);
+            if (entry != null) {
+                if (entry.expires - System.nanoTime() > 0) {
+                    hits.incrementAndGet();
+                    return entry.user;
+                }
+                entries.remove(initials);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * To be taken before reading users from the service, and given back to {@link #put(User, long)}.
+     */
+    long stamp() {
+        synchronized (entries) {
+            return epoch;
+        }
+    }
+
+    /**
+     * Caches the given user, unless any entry was invalidated after the given stamp was taken.
+     */
+    void put(final User user, final long stamp) {
+        synchronized (entries) {
+            if (stamp == epoch) {
+                entries.put(user.getInitials(), new Entry(user, System.nanoTime() + ttl));
+            }
+        }
+    }
+
+    void invalidate(final String initials) {
+        synchronized (entries) {
+            epoch++;
+            entries.remove(initials);
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.tirasa.test.provisioningws.BatchItem;
+import net.tirasa.test.provisioningws.BatchResult;
+import net.tirasa.test.provisioningws.UserService;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+
+/**
+ * Groups the writes issued concurrently by all connector instances for the same endpoint into batch calls.
+ *
+ * Callers block until their own item has been processed; a chunk is sent as soon as it is full or its first item has
+ * waited for the configured linger, and up to the configured number of chunks are in flight at the same time. Each
+ * item is sent with the client of its own caller, so a chunk makes one batch call per client.
+ *
+ * An item finding no other one queued is sent at once, without linger: sequential writes, the most common pattern,
+ * gain nothing from waiting. Under concurrent writes, items queue up while the previous chunks are being taken or sent,
+ * and lingering then lets a chunk fill up, at the cost of up to the linger of latency for its first item.
+ */
+final class BatchDispatcher {
+
+    private static final Log LOG = Log.getLog(BatchDispatcher.class);
+
+    /**
+     * Guards {@link #DISPATCHERS} and the reference counts.
+     */
+    private static final Object LOCK = new Object();
+
+    private static final Map<String, BatchDispatcher> DISPATCHERS = new HashMap<String, BatchDispatcher>();
+
+    private static final class Pending {
+
+        private final UserService service;
+
+        private final BatchItem item;
+
+        /**
+         * Set either by the sender, before sending the item, or by the caller giving up on it, so that an item is
+         * never sent after its caller timed out.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile BatchResult result;
+
+        private volatile Exception error;
+
+        Pending(final UserService service, final BatchItem item) {
+            this.service = service;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Returns the dispatcher shared by all connections with the same endpoint and batch settings, starting it on first
+     * use; every call must be matched by a {@link #release(BatchDispatcher)} call.
+     */
+    static BatchDispatcher acquire(final WebServiceConfiguration configuration) {
+        final String key = configuration.getEndpoint()
+                + '|' + configuration.getBatchSize()
+                + '|' + configuration.getBatchLinger()
+                + '|' + configuration.getBatchMaxInFlight();
+
+        synchronized (LOCK) {
+            BatchDispatcher dispatcher = DISPATCHERS.get(key);
+            if (dispatcher == null) {
+                dispatcher = new BatchDispatcher(key, configuration);
+                DISPATCHERS.put(key, dispatcher);
+                dispatcher.start();
+            }
+
+            dispatcher.references++;
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Releases the given dispatcher, shutting it down when no other connection uses it.
+     */
+    static void release(final BatchDispatcher dispatcher) {
+        synchronized (LOCK) {
+            if (--dispatcher.references == 0) {
+                DISPATCHERS.remove(dispatcher.key);
+                dispatcher.shutdown();
+            }
+        }
+    }
+
+    private final String key;
+
+    private int references;
+
+    private final String endpoint;
+
+    private final int size;
+
+    private final long linger;
+
+    private final long timeout;
+
+    private final Semaphore inFlight;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+
+    private final ExecutorService senders;
+
+    private final Thread flusher;
+
+    private BatchDispatcher(final String key, final WebServiceConfiguration configuration) {
+        this.key = key;
+        this.endpoint = configuration.getEndpoint();
+        this.size = Integer.parseInt(configuration.getBatchSize());
+        this.linger = Long.parseLong(configuration.getBatchLinger());
+        // time to wait for linger, for a free slot and for the call itself
+        this.timeout = linger + 2 * Long.parseLong(configuration.getReceiveTimeout()) * 1000L;
+
+        final int maxInFlight = Integer.parseInt(configuration.getBatchMaxInFlight());
+        this.inFlight = new Semaphore(maxInFlight);
+        this.senders = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "ws-connector-batch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.flusher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "ws-connector-batch-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    private void start() {
+        flusher.start();
+    }
+
+    /**
+     * Stops sending; items still queued fail.
+     */
+    private void shutdown() {
+        flusher.interrupt();
+        senders.shutdown();
+
+        final List<Pending> pending = new ArrayList<Pending>();
+        queue.drainTo(pending);
+        fail(pending, new IllegalStateException("Batch dispatcher for " + endpoint + " was shut down"));
+    }
+
+    /**
+     * Queues the given item and waits for its result.
+     *
+     * @param service client to send the item with, in a batch with the other items of the same client
+     * @param item item to process
+     * @return result of the item
+     * @throws OperationTimeoutException if no result came in time; the item was not sent if still queued, otherwise
+     * its outcome is unknown
+     * @throws Exception if the batch call itself failed
+     */
+    BatchResult submit(final UserService service, final BatchItem item) throws Exception {
+        final Pending pending = new Pending(service, item);
+        queue.add(pending);
+        if (!pending.done.await(timeout, TimeUnit.MILLISECONDS)) {
+            if (pending.claimed.compareAndSet(false, true)) {
+                queue.remove(pending);
+                throw new OperationTimeoutException("Batch item for " + endpoint + " not sent after " + timeout
+                        + " ms");
+            }
+            throw new OperationTimeoutException("No batch result from " + endpoint + " after " + timeout + " ms");
+        }
+
+        if (pending.error != null) {
+            throw pending.error;
+        }
+        return pending.result;
+    }
+
+    private void flush() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final List<Pending> chunk = new ArrayList<Pending>(size);
+            try {
+                chunk.add(queue.take());
+                queue.drainTo(chunk, size - 1);
+
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(linger);
+                // a lone item does not linger
+                while (chunk.size() > 1 && chunk.size() < size) {
+                    queue.drainTo(chunk, size - chunk.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (chunk.size() >= size || remaining <= 0) {
+                        break;
+                    }
+
+                    final Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    chunk.add(next);
+                }
+
+                inFlight.acquire();
+                senders.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            send(chunk);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            } catch (InterruptedException | RejectedExecutionException e) {
+                Thread.currentThread().interrupt();
+                fail(chunk, new IllegalStateException("Batch dispatcher for " + endpoint + " was shut down"));
+            }
+        }
+    }
+
+    /**
+     * Sends the items of the given chunk not given up by their callers, one batch call per client.
+     */
+    private void send(final List<Pending> chunk) {
+        final List<List<Pending>> batches = new ArrayList<List<Pending>>();
+        for (Pending pending : chunk) {
+            if (pending.claimed.compareAndSet(false, true)) {
+                List<Pending> batch = null;
+                for (int i = 0; i < batches.size() && batch == null; i++) {
+                    if (batches.get(i).get(0).service == pending.service) {
+                        batch = batches.get(i);
+                    }
+                }
+                if (batch == null) {
+                    batch = new ArrayList<Pending>(chunk.size());
+                    batches.add(batch);
+                }
+                batch.add(pending);
+            }
+        }
+
+        for (List<Pending> batch : batches) {
+            send(batch.get(0).service, batch);
+        }
+    }
+
+    private void send(final UserService service, final List<Pending> chunk) {
+        final List<BatchItem> items = new ArrayList<BatchItem>(chunk.size());
+        for (Pending pending : chunk) {
+            items.add(pending.item);
+        }
+
+        if (LOG.isOk()) {
+            LOG.ok("Sending batch of {0} items to {1}", items.size(), endpoint);
+        }
+
+        try {
+            final List<BatchResult> results = service.batch(items);
+            if (results == null || results.size() != items.size()) {
+                throw new IllegalStateException("Expected " + items.size() + " batch results, got "
+                        + (results == null ? 0 : results.size()));
+            }
+
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).result = results.get(i);
+                chunk.get(i).done.countDown();
+            }
+        } catch (Exception e) {
+            LOG.error(e, "Batch call to {0} failed", endpoint);
+            fail(chunk, e);
+        }
+    }
+
+    private static void fail(final List<Pending> chunk, final Exception error) {
+        for (Pending pending : chunk) {
+            pending.error = error;
+            pending.done.countDown();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.XMLGregorianCalendar;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.test.provisioningws.User;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Maps users returned by the service onto ConnId objects, including only the attributes requested by the caller; the
+ * same attributes are the projection requested from the service.
+ *
+ * Instances are immutable and can be shared across threads; the mapping of all attributes is {@link #ALL}.
+ */
+final class ConnectorObjectMapper {
+
+    static final String FIRSTNAME = "firstname";
+
+    static final String SURNAME = "surname";
+
+    static final String BIRTHDATE = "birthdate";
+
+    static final String INITIALS = "initials";
+
+    static final ConnectorObjectMapper ALL = new ConnectorObjectMapper(true, true, true);
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    /**
+     * First year entirely in the Gregorian calendar: earlier dates are left to GregorianCalendar and its Julian
+     * cutover.
+     */
+    private static final int FIRST_GREGORIAN_YEAR = 1583;
+
+    private final boolean firstname;
+
+    private final boolean surname;
+
+    private final boolean birthdate;
+
+    /**
+     * Service fields to request, null for all.
+     */
+    private final List<String> attributes;
+
+    private ConnectorObjectMapper(final boolean firstname, final boolean surname, final boolean birthdate) {
+        this.firstname = firstname;
+        this.surname = surname;
+        this.birthdate = birthdate;
+
+        if (firstname && surname && birthdate) {
+            this.attributes = null;
+        } else {
+            // initials are always returned, but are listed anyway so that the list is never empty
+            final List<String> names = new ArrayList<String>(4);
+            names.add(INITIALS);
+            if (firstname) {
+                names.add(FIRSTNAME);
+            }
+            if (surname) {
+                names.add(SURNAME);
+            }
+            if (birthdate) {
+                names.add(BIRTHDATE);
+            }
+            this.attributes = Collections.unmodifiableList(names);
+        }
+    }
+
+    /**
+     * Returns the mapper for the attributes to get in the given options, or {@link #ALL} if none are specified. The
+     * attributes compared by the given query, if any, are added: the framework filters the results again on the
+     * objects returned, which must hold them to match.
+     */
+    static ConnectorObjectMapper forOptions(final OperationOptions options, final Operand query) {
+        final String[] attributesToGet = options == null ? null : options.getAttributesToGet();
+        if (attributesToGet == null) {
+            return ALL;
+        }
+
+        final Set<String> names = new HashSet<String>(Arrays.asList(attributesToGet));
+        addNames(query, names);
+        return new ConnectorObjectMapper(
+                names.contains(FIRSTNAME), names.contains(SURNAME), names.contains(BIRTHDATE));
+    }
+
+    private static void addNames(final Operand query, final Set<String> names) {
+        if (query == null) {
+            return;
+        }
+        if (query.getName() != null) {
+            names.add(query.getName());
+        }
+        if (query.getOperands() != null) {
+            for (Operand operand : query.getOperands()) {
+                addNames(operand, names);
+            }
+        }
+    }
+
+    /**
+     * Returns the fields to ask the service for, as projection of its responses, or null to get all fields.
+     */
+    List<String> getAttributes() {
+        return attributes;
+    }
+
+    ConnectorObject map(final User user) {
+        final ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
+        bld.setObjectClass(ObjectClass.ACCOUNT);
+        bld.setUid(new Uid(user.getInitials()));
+        bld.setName(user.getInitials());
+
+        if (firstname) {
+            bld.addAttribute(AttributeBuilder.build(FIRSTNAME, user.getFirstname()));
+        }
+        if (surname) {
+            bld.addAttribute(AttributeBuilder.build(SURNAME, user.getSurname()));
+        }
+        if (birthdate) {
+            bld.addAttribute(user.getBirthdate() == null
+                    ? AttributeBuilder.build(BIRTHDATE)
+                    : AttributeBuilder.build(BIRTHDATE, toEpochMillis(user.getBirthdate())));
+        }
+
+        return bld.build();
+    }
+
+    /**
+     * Converts the given calendar to epoch millis straight from its fields, without the GregorianCalendar allocated
+     * by {@link XMLGregorianCalendar#toGregorianCalendar()}; falls back to the latter for calendars without a date or
+     * a timezone, or before the Gregorian cutover.
+     */
+    static long toEpochMillis(final XMLGregorianCalendar calendar) {
+        final int year = calendar.getYear();
+        final int month = calendar.getMonth();
+        final int day = calendar.getDay();
+        final int timezone = calendar.getTimezone();
+        if (year < FIRST_GREGORIAN_YEAR || calendar.getEon() != null
+                || month == DatatypeConstants.FIELD_UNDEFINED
+                || day == DatatypeConstants.FIELD_UNDEFINED
+                || timezone == DatatypeConstants.FIELD_UNDEFINED) {
+
+            return calendar.toGregorianCalendar().getTimeInMillis();
+        }
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + field(calendar.getHour()) * 60 * MILLIS_PER_MINUTE
+                + field(calendar.getMinute()) * MILLIS_PER_MINUTE
+                + field(calendar.getSecond()) * 1000L
+                + field(calendar.getMillisecond())
+                - timezone * MILLIS_PER_MINUTE;
+    }
+
+    private static long field(final int value) {
+        return value == DatatypeConstants.FIELD_UNDEFINED ? 0 : value;
+    }
+
+    /**
+     * Days from 1970-01-01 to the given date of the proleptic Gregorian calendar (year 1 onwards).
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = y / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import net.tirasa.connid.bundles.soap.cxf.ForceSoapActionOutInterceptor;
+import net.tirasa.test.provisioningws.UserService;
+import org.apache.cxf.Bus;
+import org.apache.cxf.BusException;
+import org.apache.cxf.BusFactory;
+import org.apache.cxf.endpoint.Client;
+import org.apache.cxf.feature.FastInfosetFeature;
+import org.apache.cxf.frontend.ClientProxy;
+import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
+import org.apache.cxf.service.model.EndpointInfo;
+import org.apache.cxf.transport.ConduitInitiator;
+import org.apache.cxf.transport.ConduitInitiatorManager;
+import org.apache.cxf.transport.common.gzip.GZIPFeature;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * HTTP transport shared by all connections to the same endpoint with the same pool settings.
+ *
+ * Each one is a CXF bus of its own, whose conduits all go through the single, pooled Apache HttpAsyncClient of the
+ * bus; synchronous calls are routed there as well, so that connections are kept alive and reused across connector
+ * instances instead of being opened per call.
+ *
+ * JAX-WS clients are built once per service class, SOAP action prefix, timeouts and encodings, and then shared:
+ * building one means introspecting the service class and creating its service model and JAXB context, which is far
+ * more expensive than creating a connector instance, while calls through the same client are thread-safe.
+ */
+final class HttpTransport {
+
+    private static final Log LOG = Log.getLog(HttpTransport.class);
+
+    /*
+     * Bus properties read by CXF's AsyncHTTPConduitFactory
+     */
+    private static final String USE_POLICY = "org.apache.cxf.transport.http.async.usePolicy";
+
+    private static final String MAX_CONNECTIONS = "org.apache.cxf.transport.http.async.MAX_CONNECTIONS";
+
+    private static final String MAX_PER_HOST_CONNECTIONS =
+            "org.apache.cxf.transport.http.async.MAX_PER_HOST_CONNECTIONS";
+
+    private static final String CONNECTION_TTL = "org.apache.cxf.transport.http.async.CONNECTION_TTL";
+
+    private static final String CONNECTION_MAX_IDLE = "org.apache.cxf.transport.http.async.CONNECTION_MAX_IDLE";
+
+    private static final String SO_KEEPALIVE = "org.apache.cxf.transport.http.async.SO_KEEPALIVE";
+
+    private static final String HTTP_TRANSPORT_ID = "http://cxf.apache.org/transports/http";
+
+    /**
+     * Guards {@link #TRANSPORTS} and the reference counts; bus creation and shutdown happen while holding it, so that
+     * a bus being shut down is never handed out.
+     */
+    private static final Object LOCK = new Object();
+
+    private static final Map<String, HttpTransport> TRANSPORTS = new HashMap<String, HttpTransport>();
+
+    /**
+     * Returns the transport shared by all connections with the same endpoint and pool settings, creating it on first
+     * use; every call must be matched by a {@link #release(HttpTransport)} call once the transport is no longer used.
+     */
+    static HttpTransport acquire(final WebServiceConfiguration configuration) {
+        final String key = configuration.getEndpoint()
+                + '|' + configuration.getMaxConnections()
+                + '|' + configuration.getKeepAlive()
+                + '|' + configuration.getIdleTimeout();
+
+        synchronized (LOCK) {
+            HttpTransport transport = TRANSPORTS.get(key);
+            if (transport == null) {
+                final Bus bus = BusFactory.newInstance().createBus();
+                bus.setProperty(USE_POLICY, "ALWAYS");
+                bus.setProperty(MAX_CONNECTIONS, configuration.getMaxConnections());
+                bus.setProperty(MAX_PER_HOST_CONNECTIONS, configuration.getMaxConnections());
+                bus.setProperty(CONNECTION_TTL,
+                        String.valueOf(Long.parseLong(configuration.getKeepAlive()) * 1000L));
+                bus.setProperty(CONNECTION_MAX_IDLE,
+                        String.valueOf(Long.parseLong(configuration.getIdleTimeout()) * 1000L));
+                bus.setProperty(SO_KEEPALIVE, "true");
+
+                transport = new HttpTransport(key, bus);
+                TRANSPORTS.put(key, transport);
+                LOG.ok("Created HTTP transport for {0}", key);
+            }
+
+            transport.references++;
+            return transport;
+        }
+    }
+
+    /**
+     * Releases the given transport, shutting it down with its clients when no other connection uses it.
+     */
+    static void release(final HttpTransport transport) {
+        synchronized (LOCK) {
+            // after shutdownAll() the key may name a newer transport, which must be left alone
+            if (--transport.references == 0 && TRANSPORTS.get(transport.key) == transport) {
+                TRANSPORTS.remove(transport.key);
+                transport.shutdown();
+                LOG.ok("Released HTTP transport for {0}", transport.key);
+            }
+        }
+    }
+
+    /**
+     * Closes all pooled connections and shuts down all transports, whether still in use or not.
+     */
+    static void shutdownAll() {
+        synchronized (LOCK) {
+            for (Iterator<HttpTransport> i = TRANSPORTS.values().iterator(); i.hasNext();) {
+                i.next().shutdown();
+                i.remove();
+            }
+        }
+    }
+
+    private final String key;
+
+    private final Bus bus;
+
+    private final Map<String, UserService> clients = new HashMap<String, UserService>();
+
+    private int references;
+
+    private HttpTransport(final String key, final Bus bus) {
+        this.key = key;
+        this.bus = bus;
+    }
+
+    /**
+     * Returns the client for the service class, SOAP action prefix and timeouts in the given configuration, building
+     * it on first use.
+     *
+     * @return the shared client, or null if it could not be built
+     */
+    UserService getClient(final WebServiceConfiguration configuration) {
+        final String clientKey = configuration.getServicename()
+                + '|' + configuration.getSoapActionUriPrefix()
+                + '|' + configuration.getConnectionTimeout()
+                + '|' + configuration.getReceiveTimeout()
+                + '|' + configuration.isCompression()
+                + '|' + configuration.isFastInfoset();
+
+        synchronized (clients) {
+            UserService userService = clients.get(clientKey);
+            if (userService == null) {
+                userService = createClient(configuration);
+                if (userService != null) {
+                    clients.put(clientKey, userService);
+                    LOG.ok("Created client {0} on {1}", clientKey, key);
+                }
+            }
+            return userService;
+        }
+    }
+
+    /**
+     * Returns a new conduit to the endpoint, for requests not made through a JAX-WS client: like the clients' own, it
+     * goes through the pooled connections of this transport. It must be closed once no longer used.
+     */
+    HTTPConduit createConduit(final WebServiceConfiguration configuration) throws IOException {
+        final EndpointInfo endpointInfo = new EndpointInfo(null, HTTP_TRANSPORT_ID);
+        endpointInfo.setAddress(configuration.getEndpoint());
+
+        final ConduitInitiator initiator;
+        try {
+            initiator = bus.getExtension(ConduitInitiatorManager.class).getConduitInitiator(HTTP_TRANSPORT_ID);
+        } catch (BusException e) {
+            throw new IOException("No HTTP transport available", e);
+        }
+        final HTTPConduit conduit = (HTTPConduit) initiator.getConduit(endpointInfo, bus);
+        final HTTPClientPolicy policy = conduit.getClient();
+        policy.setConnectionTimeout(Long.parseLong(configuration.getConnectionTimeout()) * 1000L);
+        policy.setReceiveTimeout(Long.parseLong(configuration.getReceiveTimeout()) * 1000L);
+        return conduit;
+    }
+
+    private UserService createClient(final WebServiceConfiguration configuration) {
+        Class<?> serviceClass = null;
+        try {
+            serviceClass = Class.forName(configuration.getServicename());
+        } catch (ClassNotFoundException e) {
+            LOG.error(e, "Provisioning class " + configuration.getServicename() + " not found");
+        }
+        if (serviceClass == null) {
+            return null;
+        }
+
+        final JaxWsProxyFactoryBean factory = new JaxWsProxyFactoryBean();
+        factory.setBus(bus);
+        factory.setServiceClass(serviceClass);
+        factory.setAddress(configuration.getEndpoint());
+        // both are negotiated: responses are compressed or binary encoded only if the service supports it
+        if (configuration.isCompression()) {
+            factory.getFeatures().add(new GZIPFeature());
+        }
+        if (configuration.isFastInfoset()) {
+            factory.getFeatures().add(new FastInfosetFeature());
+        }
+
+        final UserService userService = factory.create(UserService.class);
+
+        try {
+            final Client client = ClientProxy.getClient(userService);
+            if (client != null) {
+                final HTTPConduit conduit = (HTTPConduit) client.getConduit();
+                final HTTPClientPolicy policy = conduit.getClient();
+                policy.setConnectionTimeout(Long.parseLong(configuration.getConnectionTimeout()) * 1000L);
+                policy.setReceiveTimeout(Long.parseLong(configuration.getReceiveTimeout()) * 1000L);
+
+                client.getOutInterceptors().add(
+                        new ForceSoapActionOutInterceptor(configuration.getSoapActionUriPrefix()));
+            }
+        } catch (Throwable t) {
+            LOG.error(t, "Unknown exception");
+        }
+
+        return userService;
+    }
+
+    private void shutdown() {
+        synchronized (clients) {
+            for (UserService userService : clients.values()) {
+                ClientProxy.getClient(userService).destroy();
+            }
+            clients.clear();
+        }
+
+        bus.shutdown(true);
+        BusFactory.clearDefaultBusForAnyThread(bus);
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+
+/**
+ * Converts the {@link Operand} built by {@link WebServiceFilterTranslator} into the query type generated from the
+ * service WSDL.
+ */
+final class OperandConverter {
+
+    static net.tirasa.test.provisioningws.query.Operand toService(final Operand operand) {
+        if (operand == null) {
+            return null;
+        }
+
+        final net.tirasa.test.provisioningws.query.Operand result = new net.tirasa.test.provisioningws.query.Operand();
+        result.setOp(net.tirasa.test.provisioningws.query.Operator.valueOf(operand.getOp().name()));
+        result.setName(operand.getName());
+        result.setValue(operand.getValue());
+        result.setNot(operand.isNot());
+        result.setLogical(operand.isLogical());
+
+        if (operand.getOperands() != null) {
+            for (Operand child : operand.getOperands()) {
+                result.getOperands().add(toService(child));
+            }
+        }
+
+        return result;
+    }
+
+    private OperandConverter() {
+        // private constructor for static utility class
+    }
+}
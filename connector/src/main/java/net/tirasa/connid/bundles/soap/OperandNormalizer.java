@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.connid.bundles.soap.utilities.Operator;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Combines the operands built by {@link WebServiceFilterTranslator} into flat and simplified AND / OR nodes.
+ *
+ * Nested nodes of the same kind are flattened and duplicates removed. A predicate together with its negation makes
+ * an AND always false and an OR always true. The comparisons on the same user attribute are folded into a single
+ * interval, or into an equality. Equalities joined by OR are kept as one flat set, sorted by value, which the
+ * connector resolves with key lookups when they are on the account key.
+ *
+ * The operand always true is an AND without operands, the one always false is its negation.
+ */
+final class OperandNormalizer {
+
+    /**
+     * Attributes whose values are compared as strings by the service.
+     */
+    private static final Set<String> STRING_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            ConnectorObjectMapper.INITIALS, ConnectorObjectMapper.FIRSTNAME, ConnectorObjectMapper.SURNAME));
+
+    /**
+     * Attributes naming the account key, as initials.
+     */
+    private static final Set<String> KEY_ATTRIBUTES = new HashSet<String>(Arrays.asList(Name.NAME, Uid.NAME));
+
+    static Operand and(final Operand left, final Operand right) {
+        return normalize(Operator.AND, left, right);
+    }
+
+    static Operand or(final Operand left, final Operand right) {
+        return normalize(Operator.OR, left, right);
+    }
+
+    static boolean isTrue(final Operand operand) {
+        return isConstant(operand) && !operand.isNot();
+    }
+
+    static boolean isFalse(final Operand operand) {
+        return isConstant(operand) && operand.isNot();
+    }
+
+    private static boolean isConstant(final Operand operand) {
+        return operand != null && operand.getOp() == Operator.AND
+                && (operand.getOperands() == null || operand.getOperands().isEmpty());
+    }
+
+    private static Operand constant(final boolean value) {
+        return new Operand(Operator.AND, new LinkedHashSet<Operand>(), !value);
+    }
+
+    private static Operand normalize(final Operator op, final Operand left, final Operand right) {
+        final boolean and = op == Operator.AND;
+
+        // flatten and drop duplicates, keyed by their canonical form
+        final Map<String, Operand> operands = new LinkedHashMap<String, Operand>();
+        for (Operand operand : Arrays.asList(left, right)) {
+            if (operand.getOp() == op && !operand.isNot() && operand.getOperands() != null) {
+                for (Operand child : operand.getOperands()) {
+                    operands.put(key(child, false), child);
+                }
+            } else {
+                operands.put(key(operand, false), operand);
+            }
+        }
+
+        final List<Operand> result = new ArrayList<Operand>(operands.size());
+        final Map<String, Interval> intervals = new LinkedHashMap<String, Interval>();
+        for (Map.Entry<String, Operand> entry : operands.entrySet()) {
+            final Operand operand = entry.getValue();
+            if (isConstant(operand)) {
+                if (isTrue(operand) != and) {
+                    // false in an AND, true in an OR
+                    return operand;
+                }
+                continue;
+            }
+            if (operands.containsKey(key(operand, true))) {
+                return constant(!and);
+            }
+
+            final String attribute = attribute(operand);
+            final Comparable<?> value = attribute == null ? null : value(attribute, operand.getValue());
+            if (value == null || !Interval.accepts(operand, and)) {
+                result.add(operand);
+            } else {
+                Interval interval = intervals.get(attribute);
+                if (interval == null) {
+                    interval = new Interval(and);
+                    intervals.put(attribute, interval);
+                }
+                interval.add(operand, value);
+            }
+        }
+
+        for (Interval interval : intervals.values()) {
+            final List<Operand> folded = and ? interval.intersection() : interval.union();
+            if (folded == null) {
+                return constant(false);
+            }
+            result.addAll(folded);
+        }
+
+        if (result.isEmpty()) {
+            return constant(and);
+        }
+        if (result.size() == 1) {
+            return result.get(0);
+        }
+        return new Operand(op, new LinkedHashSet<Operand>(result));
+    }
+
+    /**
+     * Returns a string identifying the given operand, regardless of the order of the operands of AND and OR nodes;
+     * optionally the negation of the operand is identified instead.
+     */
+    private static String key(final Operand operand, final boolean negate) {
+        final StringBuilder key = new StringBuilder();
+        key.append(operand.isNot() != negate ? '!' : ' ').append(operand.getOp().name());
+        if (operand.getOp() == Operator.AND || operand.getOp() == Operator.OR) {
+            final List<String> children = new ArrayList<String>();
+            if (operand.getOperands() != null) {
+                for (Operand child : operand.getOperands()) {
+                    children.add(key(child, false));
+                }
+            }
+            Collections.sort(children);
+            key.append('(');
+            for (String child : children) {
+                key.append(child.length()).append(':').append(child);
+            }
+            key.append(')');
+        } else {
+            final String name = operand.getName() == null ? "" : operand.getName();
+            key.append(name.length()).append(':').append(name);
+            key.append(operand.getValue() == null ? "-" : operand.getValue().length() + ":" + operand.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the user attribute compared by the given operand, with the account key always named as initials, or
+     * null if the attribute is not known.
+     */
+    private static String attribute(final Operand operand) {
+        final String name = KEY_ATTRIBUTES.contains(operand.getName())
+                ? ConnectorObjectMapper.INITIALS
+                : operand.getName();
+        return STRING_ATTRIBUTES.contains(name) || ConnectorObjectMapper.BIRTHDATE.equals(name) ? name : null;
+    }
+
+    /**
+     * Parses the value compared on the given attribute as the service does, or returns null if it cannot.
+     */
+    private static Comparable<?> value(final String attribute, final String value) {
+        if (value == null) {
+            return null;
+        }
+        if (ConnectorObjectMapper.BIRTHDATE.equals(attribute)) {
+            try {
+                return Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * The equalities and comparisons on one attribute: GT and negated LT are lower bounds, LT and negated GT are upper
+     * bounds.
+     *
+     * Negated comparisons, like negated equalities, also match users without the attribute: the folded operands may
+     * match more users than the original ones, never fewer.
+     */
+    private static class Interval {
+
+        static boolean accepts(final Operand operand, final boolean and) {
+            switch (operand.getOp()) {
+                case EQ:
+                    // negated equalities only narrow an AND
+                    return !operand.isNot() || and;
+
+                case GT:
+                case LT:
+                    return true;
+
+                default:
+                    return false;
+            }
+        }
+
+        private final boolean and;
+
+        private final Map<Comparable<?>, Operand> points = new TreeMap<Comparable<?>, Operand>();
+
+        private final Map<Comparable<?>, Operand> excluded = new TreeMap<Comparable<?>, Operand>();
+
+        /**
+         * Lower and upper bounds; an OR keeps the strict and the negated ones apart, as only the latter match users
+         * without the attribute.
+         */
+        private final Bound[] bounds = new Bound[4];
+
+        /**
+         * Whether some of the operands added cannot match users without the attribute.
+         */
+        private boolean nullsRejected;
+
+        Interval(final boolean and) {
+            this.and = and;
+        }
+
+        void add(final Operand operand, final Comparable<?> value) {
+            if (operand.getOp() == Operator.EQ) {
+                (operand.isNot() ? excluded : points).put(value, operand);
+                nullsRejected |= !operand.isNot();
+            } else {
+                final Bound bound = new Bound(operand, value, (operand.getOp() == Operator.GT) != operand.isNot());
+                final int slot = (bound.lower ? 0 : 2) + (and || !bound.inclusive ? 0 : 1);
+                if (bound.replaces(bounds[slot], and)) {
+                    bounds[slot] = bound;
+                }
+                nullsRejected |= !bound.inclusive;
+            }
+        }
+
+        /**
+         * Returns the operands matching all of the ones added, or null if none can match.
+         */
+        List<Operand> intersection() {
+            final Bound lower = bounds[0];
+            final Bound upper = bounds[2];
+            if (lower != null && upper != null && nullsRejected) {
+                final int comparison = lower.compareTo(upper.value);
+                if (comparison > 0 || comparison == 0 && !(lower.inclusive && upper.inclusive)) {
+                    return null;
+                }
+                if (comparison == 0) {
+                    points.put(lower.value,
+                            new Operand(Operator.EQ, lower.operand.getName(), lower.operand.getValue()));
+                }
+            }
+
+            if (points.isEmpty()) {
+                final List<Operand> result = new ArrayList<Operand>(excluded.values());
+                if (lower != null) {
+                    result.add(lower.operand);
+                }
+                if (upper != null) {
+                    result.add(upper.operand);
+                }
+                return result;
+            }
+
+            // single valued attributes cannot equal two values, nor a value outside of the bounds
+            final Map.Entry<Comparable<?>, Operand> point = points.entrySet().iterator().next();
+            if (points.size() > 1 || excluded.containsKey(point.getKey())
+                    || lower != null && !lower.admits(point.getKey())
+                    || upper != null && !upper.admits(point.getKey())) {
+                return null;
+            }
+            return Collections.singletonList(point.getValue());
+        }
+
+        /**
+         * Returns the operands matching any of the ones added, with the equalities sorted by value.
+         */
+        List<Operand> union() {
+            final List<Operand> result = new ArrayList<Operand>(points.size() + bounds.length);
+            for (Map.Entry<Comparable<?>, Operand> point : points.entrySet()) {
+                if (!admits(point.getKey())) {
+                    result.add(point.getValue());
+                }
+            }
+            for (Bound bound : bounds) {
+                if (bound != null) {
+                    result.add(bound.operand);
+                }
+            }
+            return result;
+        }
+
+        private boolean admits(final Comparable<?> value) {
+            for (Bound bound : bounds) {
+                if (bound != null && bound.admits(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Bound {
+
+        private final Operand operand;
+
+        private final Comparable<?> value;
+
+        private final boolean lower;
+
+        private final boolean inclusive;
+
+        Bound(final Operand operand, final Comparable<?> value, final boolean lower) {
+            this.operand = operand;
+            this.value = value;
+            this.lower = lower;
+            // GT and LT are strict, their negations are not
+            this.inclusive = operand.isNot();
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        int compareTo(final Comparable<?> other) {
+            return ((Comparable) value).compareTo(other);
+        }
+
+        boolean admits(final Comparable<?> other) {
+            final int comparison = compareTo(other);
+            return comparison == 0 ? inclusive : comparison < 0 == lower;
+        }
+
+        /**
+         * Tells whether this bound should replace the given one: in an AND the tighter bound is kept, in an OR the
+         * looser one.
+         */
+        boolean replaces(final Bound current, final boolean and) {
+            if (current == null) {
+                return true;
+            }
+            final int comparison = compareTo(current.value);
+            if (comparison == 0) {
+                return inclusive != and;
+            }
+            return comparison > 0 == (lower == and);
+        }
+    }
+
+    private OperandNormalizer() {
+        // private constructor for static utility class
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.tirasa.test.provisioningws.User;
+import net.tirasa.test.provisioningws.UserPage;
+import net.tirasa.test.provisioningws.UserService;
+import net.tirasa.test.provisioningws.query.Operand;
+
+/**
+ * Full scan split into initials ranges, as returned by getPartitionBounds, each one paged through on its own thread.
+ *
+ * Users are handed over to the handler on the calling thread, one page at a time, in no particular order across
+ * ranges; when the handler stops, the ranges still being read are cancelled.
+ */
+final class PartitionedScan {
+
+    /**
+     * Maximum number of ranges read at the same time, by all connector instances.
+     */
+    private static final int MAX_PARALLEL_PARTITIONS = 16;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            MAX_PARALLEL_PARTITIONS, new ThreadFactory() {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "ws-connector-partition-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * How long a range reader waits for room in the page queue before checking whether the scan was stopped.
+     */
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    /**
+     * A page of users read from a range, the end of a range (no users, no error) or a failure.
+     */
+    private static final class Fetched {
+
+        private final List<User> users;
+
+        private final Exception error;
+
+        Fetched(final List<User> users, final Exception error) {
+            this.users = users;
+            this.error = error;
+        }
+    }
+
+    private static final Fetched END = new Fetched(null, null);
+
+    private final UserService provisioning;
+
+    private final Operand query;
+
+    private final List<String> attributes;
+
+    private final int pageSize;
+
+    private final BlockingQueue<Fetched> fetched;
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    PartitionedScan(
+            final UserService provisioning,
+            final Operand query,
+            final List<String> attributes,
+            final int partitions,
+            final int pageSize) {
+
+        this.provisioning = provisioning;
+        this.query = query;
+        this.attributes = attributes;
+        this.pageSize = pageSize;
+        // two pages per range at most are read ahead of the handler
+        this.fetched = new ArrayBlockingQueue<Fetched>(2 * partitions);
+    }
+
+    /**
+     * Reads the given ranges and hands over their users to the handler, until exhausted or the handler stops.
+     *
+     * @param bounds initials closing each range but the last
+     * @param handler user handler, called on this thread only
+     * @throws Exception the first failure reading any range
+     */
+    void run(final List<String> bounds, final StreamingUserClient.UserHandler handler) throws Exception {
+        final List<Future<?>> futures = new ArrayList<Future<?>>(bounds.size() + 1);
+        try {
+            for (int i = 0; i <= bounds.size(); i++) {
+                futures.add(EXECUTOR.submit(read(
+                        i == 0 ? null : bounds.get(i - 1),
+                        i == bounds.size() ? null : bounds.get(i))));
+            }
+
+            int running = futures.size();
+            boolean handle = true;
+            while (running > 0 && handle) {
+                final Fetched page = fetched.take();
+                if (page.error != null) {
+                    throw page.error;
+                }
+
+                if (page == END) {
+                    running--;
+                } else {
+                    for (int i = 0; i < page.users.size() && handle; i++) {
+                        handle = handler.handle(page.users.get(i));
+                    }
+                }
+            }
+        } finally {
+            stopped.set(true);
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Callable<Void> read(final String from, final String to) {
+        return new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                try {
+                    String cookie = null;
+                    do {
+                        final UserPage page = provisioning.getPartitionPage(
+                                query, from, to, pageSize, cookie, attributes);
+                        if (!page.getUsers().isEmpty() && !offer(new Fetched(page.getUsers(), null))) {
+                            return null;
+                        }
+                        cookie = page.getCookie();
+                    } while (cookie != null);
+
+                    offer(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    offer(new Fetched(null, e));
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Queues the given item for the handler, unless the scan is stopped in the meantime.
+     */
+    private boolean offer(final Fetched item) throws InterruptedException {
+        while (!stopped.get()) {
+            if (fetched.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.tirasa.test.provisioningws.User;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Last full user lists read from an endpoint, with their service version, replayed when the service reports that
+ * users did not change since; shared by all connections with the same endpoint.
+ *
+ * Reconciliations are usually far apart in time and may run on any pooled instance, so snapshots are kept as long as
+ * any connection to the endpoint is open. There is one per set of requested attributes, and beyond
+ * {@link #MAX_SNAPSHOTS} of them the least recently used one is dropped.
+ */
+final class SnapshotCache {
+
+    private static final Log LOG = Log.getLog(SnapshotCache.class);
+
+    /**
+     * Maximum number of snapshots kept per endpoint, each holding all of its users.
+     */
+    static final int MAX_SNAPSHOTS = 4;
+
+    /**
+     * Guards {@link #CACHES} and the reference counts.
+     */
+    private static final Object LOCK = new Object();
+
+    private static final Map<String, SnapshotCache> CACHES = new HashMap<String, SnapshotCache>();
+
+    static final class Snapshot {
+
+        private final String version;
+
+        private final List<User> users;
+
+        Snapshot(final String version, final List<User> users) {
+            this.version = version;
+            this.users = users;
+        }
+
+        String getVersion() {
+            return version;
+        }
+
+        List<User> getUsers() {
+            return users;
+        }
+    }
+
+    /**
+     * Returns the cache shared by all connections with the same endpoint, creating it on first use; every call must be
+     * matched by a {@link #release(SnapshotCache)} call.
+     */
+    static SnapshotCache acquire(final WebServiceConfiguration configuration) {
+        final String key = configuration.getEndpoint();
+
+        synchronized (LOCK) {
+            SnapshotCache cache = CACHES.get(key);
+            if (cache == null) {
+                cache = new SnapshotCache(key);
+                CACHES.put(key, cache);
+            }
+
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * Releases the given cache, dropping its snapshots when no other connection uses it.
+     */
+    static void release(final SnapshotCache cache) {
+        synchronized (LOCK) {
+            if (--cache.references == 0) {
+                CACHES.remove(cache.key);
+                LOG.ok("Dropping user snapshots for {0}", cache.key);
+            }
+        }
+    }
+
+    private final String key;
+
+    private int references;
+
+    private final Map<List<String>, Snapshot> snapshots =
+            new LinkedHashMap<List<String>, Snapshot>(MAX_SNAPSHOTS + 1, 0.75f, true) {
+
+        private static final long serialVersionUID = 2467318012374460181L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<List<String>, Snapshot> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+    private SnapshotCache(final String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the last snapshot taken with the given attributes (null for all), or null
+     */
+    Snapshot get(final List<String> attributes) {
+        synchronized (snapshots) {
+            return snapshots.get(attributes);
+        }
+    }
+
+    void put(final List<String> attributes, final Snapshot snapshot) {
+        synchronized (snapshots) {
+            snapshots.put(attributes, snapshot);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import net.tirasa.test.provisioningws.User;
+import net.tirasa.test.provisioningws.query.Operand;
+import org.apache.cxf.message.Exchange;
+import org.apache.cxf.message.ExchangeImpl;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.transport.MessageObserver;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Reads getUsers / searchUsers responses with an {@link XMLStreamReader}, unmarshalling and handing over one
+ * {@code <return>} element at a time instead of waiting for the whole list to be unmarshalled by the JAX-WS proxy.
+ *
+ * Requests go through a conduit of the connection's {@link HttpTransport}, so they share its pooled connections and
+ * honour the same pool settings and timeouts as the JAX-WS clients.
+ */
+public class StreamingUserClient {
+
+    /**
+     * Receives users as soon as they are read from the response.
+     */
+    public interface UserHandler {
+
+        /**
+         * @param user user just read
+         * @return false to stop reading the response
+         */
+        boolean handle(User user);
+    }
+
+    private static final Log LOG = Log.getLog(StreamingUserClient.class);
+
+    private static final String SOAP_ENV_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+    private static final String SERVICE_NS = "http://provisioningws.test.tirasa.net/";
+
+    /**
+     * All operations are bound with an empty soapAction, which is what {@code ForceSoapActionOutInterceptor} sends.
+     */
+    private static final String SOAP_ACTION = "\"\"";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static JAXBContext jaxbContext = null;
+
+    private final HTTPConduit conduit;
+
+    private final boolean compression;
+
+    StreamingUserClient(final WebServiceConfiguration configuration, final HttpTransport transport)
+            throws IOException {
+
+        this.conduit = transport.createConduit(configuration);
+        this.compression = configuration.isCompression();
+
+        // requests are synchronous: the response is handed over on the calling thread, before its request returns
+        this.conduit.setMessageObserver(new MessageObserver() {
+
+            @Override
+            public void onMessage(final Message message) {
+                message.getExchange().setInMessage(message);
+            }
+        });
+    }
+
+    private static synchronized JAXBContext getJAXBContext() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(User.class, Operand.class);
+        }
+        return jaxbContext;
+    }
+
+    /**
+     * Calls getUsers when neither query nor attributes are given, searchUsers otherwise, and streams the returned users
+     * to the given handler.
+     *
+     * @param query service query, or null for all users
+     * @param attributes user fields to return, or null for all
+     * @param handler user handler
+     * @throws IOException on communication errors or if the service returned a fault
+     */
+    public void readUsers(final Operand query, final List<String> attributes, final UserHandler handler)
+            throws IOException {
+
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put("SOAPAction", Collections.singletonList(SOAP_ACTION));
+        if (compression) {
+            headers.put("Accept-Encoding", Collections.singletonList("gzip"));
+        }
+
+        final Message request = new MessageImpl();
+        request.put(Message.HTTP_REQUEST_METHOD, "POST");
+        request.put(Message.CONTENT_TYPE, "text/xml; charset=UTF-8");
+        request.put(Message.PROTOCOL_HEADERS, headers);
+        final Exchange exchange = new ExchangeImpl();
+        exchange.setOutMessage(request);
+        request.setExchange(exchange);
+
+        try {
+            conduit.prepare(request);
+            final OutputStream out = request.getContent(OutputStream.class);
+            try {
+                writeRequest(out, query, attributes);
+            } finally {
+                // sends the rest of the request and waits for the response
+                out.close();
+            }
+
+            final Message response = exchange.getInMessage();
+            InputStream in = response == null ? null : response.getContent(InputStream.class);
+            if (in == null) {
+                throw new IOException("No response from " + conduit.getAddress());
+            }
+            if ("gzip".equalsIgnoreCase(getHeader(response, "Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            try {
+                readResponse(in, handler);
+            } finally {
+                in.close();
+            }
+        } catch (XMLStreamException | JAXBException e) {
+            throw new IOException("Could not process response from " + conduit.getAddress(), e);
+        }
+    }
+
+    /**
+     * Closes the conduit; the pooled connections it used are left to the transport.
+     */
+    public void close() {
+        conduit.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String getHeader(final Message message, final String name) {
+        final Map<String, List<String>> headers = (Map<String, List<String>>) message.get(Message.PROTOCOL_HEADERS);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void writeRequest(final OutputStream out, final Operand query, final List<String> attributes)
+            throws XMLStreamException, JAXBException {
+
+        final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeStartElement("soap", "Envelope", SOAP_ENV_NS);
+        writer.writeNamespace("soap", SOAP_ENV_NS);
+        writer.writeNamespace("ns", SERVICE_NS);
+        writer.writeStartElement("soap", "Body", SOAP_ENV_NS);
+
+        if (query == null && attributes == null) {
+            writer.writeEmptyElement("ns", "getUsers", SERVICE_NS);
+        } else {
+            writer.writeStartElement("ns", "searchUsers", SERVICE_NS);
+
+            if (query != null) {
+                final Marshaller marshaller = getJAXBContext().createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+                marshaller.marshal(new JAXBElement<Operand>(new QName("query"), Operand.class, query), writer);
+            }
+            if (attributes != null) {
+                for (String attribute : attributes) {
+                    writer.writeStartElement("attributes");
+                    writer.writeCharacters(attribute);
+                    writer.writeEndElement();
+                }
+            }
+
+            writer.writeEndElement();
+        }
+
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+    private void readResponse(final InputStream in, final UserHandler handler)
+            throws XMLStreamException, JAXBException, IOException {
+
+        final Unmarshaller unmarshaller = getJAXBContext().createUnmarshaller();
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            int event = reader.getEventType();
+            while (event != XMLStreamConstants.END_DOCUMENT) {
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if ("return".equals(reader.getLocalName())) {
+                        // leaves the reader on the event following </return>
+                        final User user = unmarshaller.unmarshal(reader, User.class).getValue();
+                        if (!handler.handle(user)) {
+                            LOG.ok("Handler stopped, discarding the rest of the response");
+                            return;
+                        }
+                        event = reader.getEventType();
+                        continue;
+                    }
+
+                    if ("Fault".equals(reader.getLocalName()) && SOAP_ENV_NS.equals(reader.getNamespaceURI())) {
+                        throw new IOException("Service fault: " + readFaultString(reader));
+                    }
+                }
+                event = reader.next();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String readFaultString(final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT && "faultstring".equals(reader.getLocalName())) {
+                final String faultString = reader.getElementText();
+                return StringUtil.isBlank(faultString) ? "unknown" : faultString;
+            }
+        }
+        return "unknown";
+    }
+}
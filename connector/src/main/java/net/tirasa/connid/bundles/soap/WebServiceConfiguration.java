@@ -51,6 +51,76 @@ public class WebServiceConfiguration extends AbstractConfiguration {
      */
     private String soapActionUriPrefix = null;
 
+    /*
+     * Number of users fetched per call when reading all results; 0 disables paging
+     */
+    private String pageSize = "1000";
+
+    /*
+     * Whether to stream users to the handler while the response is still being read
+     */
+    private boolean streaming = false;
+
+    /*
+     * Maximum number of writes sent in a single batch call; 0 disables batching
+     */
+    private String batchSize = "0";
+
+    /*
+     * Maximum time (milliseconds) a write waits for others to join its batch, when other writes are already queued
+     */
+    private String batchLinger = "20";
+
+    /*
+     * Maximum number of batch calls in flight at the same time
+     */
+    private String batchMaxInFlight = "4";
+
+    /*
+     * Number of initials ranges read in parallel by full scans; 1 disables partitioned scans
+     */
+    private String partitions = "1";
+
+    /*
+     * Maximum number of pooled HTTP connections to the endpoint
+     */
+    private String maxConnections = "64";
+
+    /*
+     * Maximum time, in seconds, a pooled HTTP connection is kept alive and reused
+     */
+    private String keepAlive = "300";
+
+    /*
+     * Time, in seconds, after which idle pooled HTTP connections are closed
+     */
+    private String idleTimeout = "60";
+
+    /*
+     * Time, in seconds, users read by key are cached for; 0 disables the cache
+     */
+    private String cacheTtl = "0";
+
+    /*
+     * Maximum number of cached users
+     */
+    private String cacheMaxEntries = "10000";
+
+    /*
+     * Whether to keep the last full user list and ask the service for it only if changed
+     */
+    private boolean snapshot = false;
+
+    /*
+     * Whether to ask for gzipped responses
+     */
+    private boolean compression = false;
+
+    /*
+     * Whether to ask for Fast Infoset encoded responses
+     */
+    private boolean fastInfoset = false;
+
     /**
      * Accessor for the example property. Uses ConfigurationProperty annotation to provide property metadata to the
      * application.
@@ -113,6 +183,146 @@ public class WebServiceConfiguration extends AbstractConfiguration {
         this.soapActionUriPrefix = soapActionUriPrefix;
     }
 
+    @ConfigurationProperty(displayMessageKey = "PAGESIZE_DISPLAY",
+            helpMessageKey = "PAGESIZE_HELP", confidential = false, order = 6)
+    public String getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(final String pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "STREAMING_DISPLAY",
+            helpMessageKey = "STREAMING_HELP", confidential = false, order = 7)
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(final boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "BATCHSIZE_DISPLAY",
+            helpMessageKey = "BATCHSIZE_HELP", confidential = false, order = 8)
+    public String getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(final String batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "BATCHLINGER_DISPLAY",
+            helpMessageKey = "BATCHLINGER_HELP", confidential = false, order = 9)
+    public String getBatchLinger() {
+        return batchLinger;
+    }
+
+    public void setBatchLinger(final String batchLinger) {
+        this.batchLinger = batchLinger;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "BATCHMAXINFLIGHT_DISPLAY",
+            helpMessageKey = "BATCHMAXINFLIGHT_HELP", confidential = false, order = 10)
+    public String getBatchMaxInFlight() {
+        return batchMaxInFlight;
+    }
+
+    public void setBatchMaxInFlight(final String batchMaxInFlight) {
+        this.batchMaxInFlight = batchMaxInFlight;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "PARTITIONS_DISPLAY",
+            helpMessageKey = "PARTITIONS_HELP", confidential = false, order = 11)
+    public String getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(final String partitions) {
+        this.partitions = partitions;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "MAXCONNECTIONS_DISPLAY",
+            helpMessageKey = "MAXCONNECTIONS_HELP", confidential = false, order = 12)
+    public String getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(final String maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "KEEPALIVE_DISPLAY",
+            helpMessageKey = "KEEPALIVE_HELP", confidential = false, order = 13)
+    public String getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(final String keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "IDLETIMEOUT_DISPLAY",
+            helpMessageKey = "IDLETIMEOUT_HELP", confidential = false, order = 14)
+    public String getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(final String idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "CACHETTL_DISPLAY",
+            helpMessageKey = "CACHETTL_HELP", confidential = false, order = 15)
+    public String getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(final String cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "CACHEMAXENTRIES_DISPLAY",
+            helpMessageKey = "CACHEMAXENTRIES_HELP", confidential = false, order = 16)
+    public String getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(final String cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "SNAPSHOT_DISPLAY",
+            helpMessageKey = "SNAPSHOT_HELP", confidential = false, order = 17)
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(final boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "COMPRESSION_DISPLAY",
+            helpMessageKey = "COMPRESSION_HELP", confidential = false, order = 18)
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(final boolean compression) {
+        this.compression = compression;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "FASTINFOSET_DISPLAY",
+            helpMessageKey = "FASTINFOSET_HELP", confidential = false, order = 19)
+    public boolean isFastInfoset() {
+        return fastInfoset;
+    }
+
+    public void setFastInfoset(final boolean fastInfoset) {
+        this.fastInfoset = fastInfoset;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -149,6 +359,126 @@ public class WebServiceConfiguration extends AbstractConfiguration {
             throw new IllegalArgumentException("The specified receive timeout is not valid.");
         }
 
+        if (StringUtil.isBlank(pageSize)) {
+            pageSize = "1000";
+        }
+
+        try {
+            if (Integer.parseInt(pageSize) < 0) {
+                throw new NumberFormatException(pageSize);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified page size is not valid.");
+        }
+
+        if (StringUtil.isBlank(batchSize)) {
+            batchSize = "0";
+        }
+
+        try {
+            if (Integer.parseInt(batchSize) < 0) {
+                throw new NumberFormatException(batchSize);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified batch size is not valid.");
+        }
+
+        if (StringUtil.isBlank(batchLinger)) {
+            batchLinger = "20";
+        }
+
+        try {
+            if (Long.parseLong(batchLinger) < 0) {
+                throw new NumberFormatException(batchLinger);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified batch linger is not valid.");
+        }
+
+        if (StringUtil.isBlank(batchMaxInFlight)) {
+            batchMaxInFlight = "4";
+        }
+
+        try {
+            if (Integer.parseInt(batchMaxInFlight) <= 0) {
+                throw new NumberFormatException(batchMaxInFlight);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified maximum number of batches in flight is not valid.");
+        }
+
+        if (StringUtil.isBlank(partitions)) {
+            partitions = "1";
+        }
+
+        try {
+            if (Integer.parseInt(partitions) <= 0) {
+                throw new NumberFormatException(partitions);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified number of partitions is not valid.");
+        }
+
+        if (StringUtil.isBlank(maxConnections)) {
+            maxConnections = "64";
+        }
+
+        try {
+            if (Integer.parseInt(maxConnections) <= 0) {
+                throw new NumberFormatException(maxConnections);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified maximum number of connections is not valid.");
+        }
+
+        if (StringUtil.isBlank(keepAlive)) {
+            keepAlive = "300";
+        }
+
+        try {
+            if (Long.parseLong(keepAlive) <= 0) {
+                throw new NumberFormatException(keepAlive);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified keep-alive duration is not valid.");
+        }
+
+        if (StringUtil.isBlank(idleTimeout)) {
+            idleTimeout = "60";
+        }
+
+        try {
+            if (Long.parseLong(idleTimeout) <= 0) {
+                throw new NumberFormatException(idleTimeout);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified idle timeout is not valid.");
+        }
+
+        if (StringUtil.isBlank(cacheTtl)) {
+            cacheTtl = "0";
+        }
+
+        try {
+            if (Long.parseLong(cacheTtl) < 0) {
+                throw new NumberFormatException(cacheTtl);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified cache time to live is not valid.");
+        }
+
+        if (StringUtil.isBlank(cacheMaxEntries)) {
+            cacheMaxEntries = "10000";
+        }
+
+        try {
+            if (Integer.parseInt(cacheMaxEntries) <= 0) {
+                throw new NumberFormatException(cacheMaxEntries);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The specified maximum number of cache entries is not valid.");
+        }
+
         try {
             // Check if the specified endpoint is a well-formed URL
             final URL endpointURL = new URL(endpoint);
@@ -15,14 +15,7 @@
  */
 package net.tirasa.connid.bundles.soap;
 
-import org.apache.cxf.Bus;
-import org.apache.cxf.BusFactory;
-import org.apache.cxf.endpoint.Client;
-import org.apache.cxf.frontend.ClientProxy;
-import org.apache.cxf.jaxws.JaxWsProxyFactoryBean;
-import org.apache.cxf.transport.http.HTTPConduit;
-import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
-import net.tirasa.connid.bundles.soap.cxf.ForceSoapActionOutInterceptor;
+import java.io.IOException;
 import net.tirasa.test.provisioningws.UserService;
 import org.identityconnectors.common.logging.Log;
 
@@ -32,10 +25,18 @@ public class WebServiceConnection {
 
     private static final String SUCCESS = "OK";
 
-    private static Bus bus = null;
+    private HttpTransport transport;
+
+    private BatchDispatcher batchDispatcher;
+
+    private AccountCache accountCache;
+
+    private SnapshotCache snapshotCache;
 
     private UserService userService;
 
+    private StreamingUserClient streamingClient;
+
     public WebServiceConnection(final WebServiceConfiguration configuration) {
         boolean isValidConf = false;
         try {
@@ -48,62 +49,67 @@ public class WebServiceConnection {
             return;
         }
 
-        Class<?> serviceClass = null;
-        try {
-            serviceClass = Class.forName(configuration.getServicename());
-        } catch (ClassNotFoundException e) {
-            LOG.error(e, "Provisioning class " + configuration.getServicename() + " not found");
-        }
-        if (serviceClass == null) {
+        transport = HttpTransport.acquire(configuration);
+        userService = transport.getClient(configuration);
+        if (userService == null) {
             return;
         }
 
-        synchronized (LOG) {
-            if (bus == null) {
-                bus = BusFactory.newInstance().createBus();
-                BusFactory.setDefaultBus(bus);
-                BusFactory.setThreadDefaultBus(bus);
-            }
+        if (Integer.parseInt(configuration.getBatchSize()) > 0) {
+            batchDispatcher = BatchDispatcher.acquire(configuration);
         }
 
-        final JaxWsProxyFactoryBean factory = new JaxWsProxyFactoryBean();
-        factory.setBus(bus);
-        factory.setServiceClass(serviceClass);
-        factory.setAddress(configuration.getEndpoint());
+        if (Long.parseLong(configuration.getCacheTtl()) > 0) {
+            accountCache = AccountCache.acquire(configuration);
+        }
 
-        userService = factory.create(UserService.class);
+        if (configuration.isSnapshot()) {
+            snapshotCache = SnapshotCache.acquire(configuration);
+        }
 
-        try {
-            final Client client = ClientProxy.getClient(userService);
-            if (client != null) {
-                final HTTPConduit conduit = (HTTPConduit) client.getConduit();
-                final HTTPClientPolicy policy = conduit.getClient();
-                policy.setConnectionTimeout(Long.parseLong(configuration.getConnectionTimeout()) * 1000L);
-                policy.setReceiveTimeout(Long.parseLong(configuration.getReceiveTimeout()) * 1000L);
-
-                client.getOutInterceptors().add(
-                        new ForceSoapActionOutInterceptor(configuration.getSoapActionUriPrefix()));
+        if (configuration.isStreaming()) {
+            try {
+                streamingClient = new StreamingUserClient(configuration, transport);
+            } catch (IOException e) {
+                LOG.error(e, "Could not create streaming client for " + configuration.getEndpoint());
             }
-        } catch (Throwable t) {
-            LOG.error(t, "Unknown exception");
         }
     }
 
     /**
-     * Release internal resources.
+     * Release internal resources; shared ones are shut down only when no other connection uses them.
      */
     public void dispose() {
         userService = null;
+
+        if (streamingClient != null) {
+            streamingClient.close();
+            streamingClient = null;
+        }
+
+        if (snapshotCache != null) {
+            SnapshotCache.release(snapshotCache);
+            snapshotCache = null;
+        }
+        if (accountCache != null) {
+            AccountCache.release(accountCache);
+            accountCache = null;
+        }
+        if (batchDispatcher != null) {
+            BatchDispatcher.release(batchDispatcher);
+            batchDispatcher = null;
+        }
+        if (transport != null) {
+            HttpTransport.release(transport);
+            transport = null;
+        }
     }
 
+    /**
+     * Shuts down the transports of all connections, including the ones still in use.
+     */
     public static void shutdownBus() {
-        synchronized (LOG) {
-            if (bus != null) {
-                bus.shutdown(true);
-                BusFactory.clearDefaultBusForAnyThread(bus);
-                bus = null;
-            }
-        }
+        HttpTransport.shutdownAll();
     }
 
     /**
@@ -118,4 +124,35 @@ public class WebServiceConnection {
     public UserService getUserService() {
         return userService;
     }
+
+    public StreamingUserClient getStreamingClient() {
+        return streamingClient;
+    }
+
+    BatchDispatcher getBatchDispatcher() {
+        return batchDispatcher;
+    }
+
+    AccountCache getAccountCache() {
+        return accountCache;
+    }
+
+    SnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+    /**
+     * @return number of users found in the account cache shared by this connection, 0 if caching is disabled
+     */
+    public long getCacheHits() {
+        return accountCache == null ? 0 : accountCache.getHits();
+    }
+
+    /**
+     * @return number of users looked up in vain in the account cache shared by this connection, 0 if caching is
+     * disabled
+     */
+    public long getCacheMisses() {
+        return accountCache == null ? 0 : accountCache.getMisses();
+    }
 }
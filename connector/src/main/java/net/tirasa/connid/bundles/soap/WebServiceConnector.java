@@ -1,17 +1,50 @@
 package net.tirasa.connid.bundles.soap;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.ws.Response;
 import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.connid.bundles.soap.utilities.Operator;
+import net.tirasa.test.provisioningws.AlreadyExistsException_Exception;
+import net.tirasa.test.provisioningws.AttributeChange;
+import net.tirasa.test.provisioningws.BatchItem;
+import net.tirasa.test.provisioningws.BatchOperation;
+import net.tirasa.test.provisioningws.BatchResult;
+import net.tirasa.test.provisioningws.Change;
+import net.tirasa.test.provisioningws.ChangePage;
+import net.tirasa.test.provisioningws.GetUserResponse;
+import net.tirasa.test.provisioningws.NotFoundException_Exception;
 import net.tirasa.test.provisioningws.User;
+import net.tirasa.test.provisioningws.UserPage;
 import net.tirasa.test.provisioningws.UserService;
+import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeDelta;
+import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
-import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
@@ -19,28 +52,82 @@ import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SortKey;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.Connector;
 import org.identityconnectors.framework.spi.ConnectorClass;
 import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+import org.identityconnectors.framework.spi.operations.CreateOp;
+import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
+import org.identityconnectors.framework.spi.operations.SyncOp;
 import org.identityconnectors.framework.spi.operations.TestOp;
+import org.identityconnectors.framework.spi.operations.UpdateDeltaOp;
+import org.identityconnectors.framework.spi.operations.UpdateOp;
 
 @ConnectorClass(displayNameKey = "SOAP_CONNECTOR", configurationClass = WebServiceConfiguration.class)
 public class WebServiceConnector implements
         PoolableConnector,
+        CreateOp,
+        DeleteOp,
         SchemaOp,
         SearchOp<Operand>,
-        TestOp {
+        SyncOp,
+        TestOp,
+        UpdateOp,
+        UpdateDeltaOp {
+
+    /**
+     * Search option asking only for the number of matching accounts: no object is handled, the count is reported to
+     * a {@link SearchResultsHandler} as the remaining paged results.
+     *
+     * The framework does not filter a count again, so only queries that the service evaluates exactly are counted:
+     * on known attributes, and negated only where every user has a value, as for the account key.
+     */
+    public static final String OP_COUNT_ONLY = "COUNT_ONLY";
 
     /**
      * Setup logging for the {@link WebServiceConnector}.
      */
     private static final Log LOG = Log.getLog(WebServiceConnector.class);
 
+    /**
+     * Attribute names identifying an account, resolved through getUser(initials).
+     */
+    private static final Set<String> KEY_ATTRIBUTES = new HashSet<String>(
+            Arrays.asList("initials", Name.NAME, Uid.NAME));
+
+    /**
+     * Maximum number of asynchronous getUser(initials) calls in flight for an OR of key EQs.
+     */
+    private static final int MAX_PARALLEL_LOOKUPS = 32;
+
+    /**
+     * Changes read per call by sync, and users per call by partitioned scans and sorted searches, when paging is
+     * disabled.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final DatatypeFactory DATATYPE_FACTORY;
+
+    static {
+        try {
+            DATATYPE_FACTORY = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * Place holder for the Connection created in the init method.
      */
@@ -95,7 +182,6 @@ public class WebServiceConnector implements
             connection.dispose();
             connection = null;
         }
-        WebServiceConnection.shutdownBus();
     }
 
     /**
@@ -124,9 +210,9 @@ public class WebServiceConnector implements
 
         Set<AttributeInfo> attrsInfo = new HashSet<AttributeInfo>();
         attrsInfo.add(initialsAIB.build());
-        attrsInfo.add(AttributeInfoBuilder.build("firstname", String.class));
-        attrsInfo.add(AttributeInfoBuilder.build("surname", String.class));
-        attrsInfo.add(AttributeInfoBuilder.build("birthdate", Long.class));
+        attrsInfo.add(AttributeInfoBuilder.build(ConnectorObjectMapper.FIRSTNAME, String.class));
+        attrsInfo.add(AttributeInfoBuilder.build(ConnectorObjectMapper.SURNAME, String.class));
+        attrsInfo.add(AttributeInfoBuilder.build(ConnectorObjectMapper.BIRTHDATE, Long.class));
 
         ObjectClassInfo ociOrg = new ObjectClassInfoBuilder().setType(ObjectClass.ACCOUNT_NAME).
                 addAllAttributeInfo(attrsInfo).
@@ -151,9 +237,7 @@ public class WebServiceConnector implements
             final ObjectClass oclass,
             final OperationOptions options) {
 
-        if (oclass == null || (!oclass.equals(ObjectClass.ACCOUNT))) {
-            throw new IllegalArgumentException("Invalid objectclass");
-        }
+        checkObjectClass(oclass);
 
         return new WebServiceFilterTranslator();
     }
@@ -178,47 +262,453 @@ public class WebServiceConnector implements
         }
 
         // check objectclass
-        if (objClass == null || (!objClass.equals(ObjectClass.ACCOUNT))) {
-            throw new IllegalArgumentException("Invalid objectclass");
-        }
+        checkObjectClass(objClass);
 
         // check handler
         if (handler == null) {
             throw new IllegalArgumentException("Invalid handler");
         }
 
-        // get web service client
-        final UserService provisioning = connection.getUserService();
-        if (provisioning == null) {
-            throw new IllegalStateException("Web Service client not found");
+        final boolean countOnly = options != null && Boolean.TRUE.equals(options.getOptions().get(OP_COUNT_ONLY));
+
+        if (OperandNormalizer.isFalse(query)) {
+            LOG.ok("Query matches no user, skipping the service call");
+            if (countOnly) {
+                handleCount(handler, 0);
+            }
+            return;
         }
 
+        // get web service client
+        final UserService provisioning = getUserService();
+
+        final ConnectorObjectMapper mapper = ConnectorObjectMapper.forOptions(options, query);
+
         try {
-            final List<User> resultSet = provisioning.getUsers();
-            if (resultSet == null) {
+            if (countOnly) {
+                if (!isExact(query, false)) {
+                    throw new IllegalArgumentException("Query cannot be counted exactly by the service: " + query);
+                }
+                handleCount(handler, count(provisioning, query));
                 return;
             }
 
-            boolean handle = true;
-            for (final Iterator<User> i = resultSet.iterator(); i.hasNext() && handle;) {
-                final User user = i.next();
+            final SortKey sortKey = getSortKey(options);
 
-                if (LOG.isOk()) {
-                    LOG.ok("Found user: {0}", user);
-                }
+            final Set<String> keys = getLookupKeys(query);
+            if (keys != null && (sortKey == null || keys.size() == 1)) {
+                lookup(provisioning, keys, mapper, handler);
+                return;
+            }
+
+            final net.tirasa.test.provisioningws.query.Operand serviceQuery = OperandConverter.toService(query);
 
-                try {
-                    handle = handler.handle(buildConnectorObject(user).build());
-                    LOG.ok("Handle: {0}", handle);
-                } catch (Exception e) {
-                    LOG.error(e, "Error building connector object for {0}", user);
+            if (sortKey != null) {
+                sortedSearch(provisioning, serviceQuery, sortKey, options, mapper, handler);
+                return;
+            }
+
+            final Integer pageSize = options == null ? null : options.getPageSize();
+            if (pageSize != null && pageSize > 0) {
+                // caller-driven paging: return just the requested page, with the cookie for the next one
+                final UserPage page = provisioning.getUsersPage(
+                        serviceQuery, pageSize, options.getPagedResultsCookie(), mapper.getAttributes());
+                handleUsers(handler, mapper, page.getUsers());
+
+                if (handler instanceof SearchResultsHandler) {
+                    ((SearchResultsHandler) handler).handleResult(new SearchResult(page.getCookie(), -1));
                 }
+                return;
             }
+
+            if (query == null && config.isSnapshot()) {
+                readAllUsers(provisioning, mapper, handler);
+                return;
+            }
+
+            readUsers(provisioning, serviceQuery, mapper, new StreamingUserClient.UserHandler() {
+
+                @Override
+                public boolean handle(final User user) {
+                    return handleUser(handler, mapper, user);
+                }
+            });
         } catch (Exception e) {
             throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Reads the users matching the given query, by partitions, streamed or one page at a time as configured, until
+     * exhausted or the handler stops.
+     */
+    private void readUsers(
+            final UserService provisioning,
+            final net.tirasa.test.provisioningws.query.Operand serviceQuery,
+            final ConnectorObjectMapper mapper,
+            final StreamingUserClient.UserHandler userHandler)
+            throws Exception {
+
+        final int fetchSize = Integer.parseInt(config.getPageSize());
+
+        final int partitions = Integer.parseInt(config.getPartitions());
+        if (partitions > 1) {
+            final List<String> bounds = provisioning.getPartitionBounds(partitions);
+            new PartitionedScan(
+                    provisioning,
+                    serviceQuery,
+                    mapper.getAttributes(),
+                    bounds.size() + 1,
+                    fetchSize > 0 ? fetchSize : DEFAULT_PAGE_SIZE).
+                    run(bounds, userHandler);
+            return;
+        }
+
+        final StreamingUserClient streamingClient = connection.getStreamingClient();
+        if (streamingClient != null) {
+            streamingClient.readUsers(serviceQuery, mapper.getAttributes(), userHandler);
+            return;
+        }
+
+        if (fetchSize <= 0) {
+            handleUsers(userHandler, serviceQuery == null && mapper.getAttributes() == null
+                    ? provisioning.getUsers()
+                    : provisioning.searchUsers(serviceQuery, mapper.getAttributes()));
+            return;
+        }
+
+        // fetch all results, one page at a time, until exhausted or the handler stops
+        String cookie = null;
+        boolean handle = true;
+        do {
+            final UserPage page = provisioning.getUsersPage(serviceQuery, fetchSize, cookie, mapper.getAttributes());
+            handle = handleUsers(userHandler, page.getUsers());
+            cookie = page.getCookie();
+        } while (handle && cookie != null);
+    }
+
+    private static boolean handleUsers(final StreamingUserClient.UserHandler userHandler, final List<User> users) {
+        for (User user : users) {
+            if (!userHandler.handle(user)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first sort key requested, if any: the service orders by one attribute, then by initials.
+     */
+    private static SortKey getSortKey(final OperationOptions options) {
+        if (options == null || options.getSortKeys() == null || options.getSortKeys().length == 0) {
+            return null;
+        }
+        if (options.getSortKeys().length > 1) {
+            LOG.warn("Only the first sort key is applied, then initials: {0}", options.getSortKeys()[0].getField());
+        }
+        return options.getSortKeys()[0];
+    }
+
+    /**
+     * Returns the users ordered by the given key: just the requested page when the caller pages, else all pages in
+     * turn. Each page seeks past the last user of the previous one, so deep pages cost as much as the first.
+     */
+    private void sortedSearch(
+            final UserService provisioning,
+            final net.tirasa.test.provisioningws.query.Operand serviceQuery,
+            final SortKey sortKey,
+            final OperationOptions options,
+            final ConnectorObjectMapper mapper,
+            final ResultsHandler handler) {
+
+        final boolean descending = !sortKey.isAscendingOrder();
+
+        final Integer pageSize = options.getPageSize();
+        if (pageSize != null && pageSize > 0) {
+            final UserPage page = provisioning.getSortedPage(serviceQuery, sortKey.getField(), descending,
+                    pageSize, options.getPagedResultsCookie(), mapper.getAttributes());
+            handleUsers(handler, mapper, page.getUsers());
+
+            if (handler instanceof SearchResultsHandler) {
+                ((SearchResultsHandler) handler).handleResult(new SearchResult(page.getCookie(), -1));
+            }
+            return;
+        }
+
+        final int fetchSize = Integer.parseInt(config.getPageSize());
+        String cookie = null;
+        boolean handle = true;
+        do {
+            final UserPage page = provisioning.getSortedPage(serviceQuery, sortKey.getField(), descending,
+                    fetchSize > 0 ? fetchSize : DEFAULT_PAGE_SIZE, cookie, mapper.getAttributes());
+            handle = handleUsers(handler, mapper, page.getUsers());
+            cookie = page.getCookie();
+        } while (handle && cookie != null);
+    }
+
+    /**
+     * Counts the users matching the given query on the service; a single account key is checked with userExists.
+     */
+    private static int count(final UserService provisioning, final Operand query) {
+        final Set<String> keys = getLookupKeys(query);
+        if (keys != null && keys.size() == 1) {
+            return provisioning.userExists(keys.iterator().next()) ? 1 : 0;
+        }
+        return provisioning.countUsers(OperandConverter.toService(query));
+    }
+
+    /**
+     * Tells whether the service matches exactly the users matching the given query: it matches any user on attributes
+     * it does not know, and a negated comparison also matches the users without the attribute.
+     *
+     * @param query query to check
+     * @param negated whether the query is under an odd number of negations
+     */
+    private static boolean isExact(final Operand query, final boolean negated) {
+        if (query == null) {
+            return true;
+        }
+
+        final boolean not = negated != query.isNot();
+        if (query.getOp() == Operator.AND || query.getOp() == Operator.OR) {
+            if (query.getOperands() != null) {
+                for (Operand operand : query.getOperands()) {
+                    if (!isExact(operand, not)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        final String name = query.getName();
+        if (Name.NAME.equals(name) || Uid.NAME.equals(name) || ConnectorObjectMapper.INITIALS.equals(name)) {
+            return true;
+        }
+        return !not && (ConnectorObjectMapper.FIRSTNAME.equals(name)
+                || ConnectorObjectMapper.SURNAME.equals(name)
+                || ConnectorObjectMapper.BIRTHDATE.equals(name));
+    }
+
+    private static void handleCount(final ResultsHandler handler, final int count) {
+        if (handler instanceof SearchResultsHandler) {
+            ((SearchResultsHandler) handler).handleResult(new SearchResult(null, count));
+        }
+    }
+
+    /**
+     * Returns all users from the last snapshot taken if the service version did not change since; otherwise reads them
+     * as any other search, keeping them as the new snapshot once read to the end.
+     */
+    private void readAllUsers(
+            final UserService provisioning,
+            final ConnectorObjectMapper mapper,
+            final ResultsHandler handler)
+            throws Exception {
+
+        final SnapshotCache cache = connection.getSnapshotCache();
+        final SnapshotCache.Snapshot previous = cache.get(mapper.getAttributes());
+
+        // read before the users, so that a write while reading them makes the new snapshot stale at once
+        final String version = provisioning.getUsersVersion();
+        if (previous != null && previous.getVersion().equals(version)) {
+            LOG.ok("Users not modified since version {0}", version);
+            handleUsers(handler, mapper, previous.getUsers());
+            return;
+        }
+
+        final List<User> users = new ArrayList<User>();
+        final AtomicBoolean complete = new AtomicBoolean(true);
+        readUsers(provisioning, null, mapper, new StreamingUserClient.UserHandler() {
+
+            @Override
+            public boolean handle(final User user) {
+                users.add(user);
+                if (!handleUser(handler, mapper, user)) {
+                    complete.set(false);
+                }
+                return complete.get();
+            }
+        });
+
+        if (complete.get()) {
+            cache.put(mapper.getAttributes(), new SnapshotCache.Snapshot(version, users));
+        }
+    }
+
+    /**
+     * Returns the initials to look up when the given query is a non-negated EQ on the account key, or an OR of such
+     * EQs; returns null if the query needs a search instead.
+     */
+    private static Set<String> getLookupKeys(final Operand query) {
+        if (query == null || query.isNot()) {
+            return null;
+        }
+
+        if (query.getOp() == Operator.EQ) {
+            return KEY_ATTRIBUTES.contains(query.getName()) && query.getValue() != null
+                    ? Collections.singleton(query.getValue())
+                    : null;
+        }
+
+        if (query.getOp() == Operator.OR && query.getOperands() != null && !query.getOperands().isEmpty()) {
+            final Set<String> keys = new LinkedHashSet<String>();
+            for (Operand operand : query.getOperands()) {
+                final Set<String> operandKeys = getLookupKeys(operand);
+                if (operandKeys == null) {
+                    return null;
+                }
+                keys.addAll(operandKeys);
+            }
+            return keys;
+        }
+
+        return null;
+    }
+
+    /**
+     * A key being resolved: the user found in the account cache, or the call in flight.
+     */
+    private static final class Lookup {
+
+        private final User cached;
+
+        private final Response<GetUserResponse> response;
+
+        Lookup(final User cached, final Response<GetUserResponse> response) {
+            this.cached = cached;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Resolves each key via getUser(initials), or from the account cache if enabled; when more than one key is given,
+     * the calls go through the asynchronous variant, which needs no thread per call in flight. Users are handled in
+     * the order of the keys, whether cached or not, and users not found are simply skipped.
+     */
+    private void lookup(
+            final UserService provisioning,
+            final Set<String> keys,
+            final ConnectorObjectMapper mapper,
+            final ResultsHandler handler)
+            throws Exception {
+
+        final AccountCache cache = connection.getAccountCache();
+        final long stamp = cache == null ? 0 : cache.stamp();
+
+        if (keys.size() == 1) {
+            final String key = keys.iterator().next();
+            User user = cache == null ? null : cache.get(key);
+            if (user == null) {
+                user = getUser(provisioning, key);
+                if (user != null && cache != null) {
+                    cache.put(user, stamp);
+                }
+            }
+            if (user != null) {
+                handleUser(handler, mapper, user);
+            }
+            return;
+        }
+
+        // in the order of the keys, so that cache hits wait for the calls in flight for the keys before them
+        final Deque<Lookup> pending = new ArrayDeque<Lookup>();
+        int inFlight = 0;
+        try {
+            final Iterator<String> i = keys.iterator();
+            boolean handle = true;
+            while (handle && (i.hasNext() || !pending.isEmpty())) {
+                final Lookup first = pending.peek();
+                if (first != null && first.response == null) {
+                    pending.poll();
+                    handle = handleUser(handler, mapper, first.cached);
+                } else if (i.hasNext() && inFlight < MAX_PARALLEL_LOOKUPS) {
+                    final String key = i.next();
+                    final User cached = cache == null ? null : cache.get(key);
+                    if (cached == null) {
+                        pending.add(new Lookup(null, provisioning.getUserAsync(key)));
+                        inFlight++;
+                    } else {
+                        pending.add(new Lookup(cached, null));
+                    }
+                } else {
+                    pending.poll();
+                    inFlight--;
+                    final User user = getUser(first.response);
+                    if (user != null) {
+                        if (cache != null) {
+                            cache.put(user, stamp);
+                        }
+                        handle = handleUser(handler, mapper, user);
+                    }
+                }
+            }
+        } finally {
+            for (Lookup lookup : pending) {
+                if (lookup.response != null) {
+                    lookup.response.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static User getUser(final UserService provisioning, final String initials) throws Exception {
+        try {
+            return provisioning.getUser(initials);
+        } catch (NotFoundException_Exception e) {
+            LOG.ok("User {0} not found", initials);
+            return null;
+        }
+    }
+
+    private static User getUser(final Response<GetUserResponse> response) throws Exception {
+        try {
+            return response.get().getReturn();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NotFoundException_Exception) {
+                LOG.ok("User {0} not found", e.getCause().getMessage());
+                return null;
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Drops the given user from the account cache, if enabled; to be called after every write.
+     */
+    private void invalidate(final Uid uid) {
+        final AccountCache cache = connection == null ? null : connection.getAccountCache();
+        if (cache != null && uid != null) {
+            cache.invalidate(uid.getUidValue());
+        }
+    }
+
+    private boolean handleUsers(
+            final ResultsHandler handler, final ConnectorObjectMapper mapper, final List<User> users) {
+        boolean handle = true;
+        if (users != null) {
+            for (final Iterator<User> i = users.iterator(); i.hasNext() && handle;) {
+                handle = handleUser(handler, mapper, i.next());
+            }
+        }
+        return handle;
+    }
+
+    private boolean handleUser(final ResultsHandler handler, final ConnectorObjectMapper mapper, final User user) {
+        if (LOG.isOk()) {
+            LOG.ok("Found user: {0}", user);
+        }
+
+        boolean handle = true;
+        try {
+            handle = handler.handle(mapper.map(user));
+            LOG.ok("Handle: {0}", handle);
+        } catch (Exception e) {
+            LOG.error(e, "Error building connector object for {0}", user);
+        }
+        return handle;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -227,17 +717,315 @@ public class WebServiceConnector implements
         connection.test();
     }
 
-    private ConnectorObjectBuilder buildConnectorObject(final User user) {
-        ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
-        bld.setObjectClass(ObjectClass.ACCOUNT);
-        bld.setName(user.getInitials());
-        bld.setUid(new Uid(user.getInitials()));
+    /**
+     * {@inheritDoc}
+     *
+     * Reads the service change log after the given token, one page of changes at a time; without a token, only the
+     * changes made from now on are returned.
+     */
+    @Override
+    public void sync(
+            final ObjectClass objClass,
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options) {
+
+        checkObjectClass(objClass);
+
+        if (handler == null) {
+            throw new IllegalArgumentException("Invalid handler");
+        }
+
+        final UserService provisioning = getUserService();
+        final int pageSize = Integer.parseInt(config.getPageSize()) > 0
+                ? Integer.parseInt(config.getPageSize())
+                : DEFAULT_PAGE_SIZE;
+
+        final ConnectorObjectMapper mapper = ConnectorObjectMapper.forOptions(options, null);
+
+        // tokens are the epoch of the service change log and a sequence number, separated by a dot;
+        // without a token, changes are returned from now on, as the log holds only the latest ones anyway
+        final String value = token == null || token.getValue() == null
+                ? getLatestSyncToken(objClass).getValue().toString()
+                : token.getValue().toString();
+        final int dot = value.lastIndexOf('.');
+        String epoch = dot < 0 ? null : value.substring(0, dot);
+        long from = Long.parseLong(value.substring(dot + 1));
+        long latest = from;
+        boolean handle = true;
+        ChangePage page;
+        do {
+            page = provisioning.getChangesSince(epoch, from, pageSize);
+            if (page.isTruncated()) {
+                throw new ConnectorException("Changes after token " + value
+                        + " are no longer available, a full reconciliation is needed");
+            }
+            epoch = page.getEpoch();
+            latest = page.getLatestToken();
+
+            for (final Iterator<Change> i = page.getChanges().iterator(); i.hasNext() && handle;) {
+                final Change change = i.next();
+                from = change.getToken();
+
+                final SyncDeltaBuilder delta = new SyncDeltaBuilder();
+                delta.setToken(new SyncToken(epoch + '.' + change.getToken()));
+                delta.setObjectClass(ObjectClass.ACCOUNT);
+                delta.setUid(new Uid(change.getInitials()));
+                switch (change.getType()) {
+                    case CREATE:
+                        delta.setDeltaType(SyncDeltaType.CREATE);
+                        delta.setObject(mapper.map(change.getUser()));
+                        break;
+
+                    case UPDATE:
+                        delta.setDeltaType(SyncDeltaType.UPDATE);
+                        delta.setObject(mapper.map(change.getUser()));
+                        break;
+
+                    default:
+                        delta.setDeltaType(SyncDeltaType.DELETE);
+                }
+
+                handle = handler.handle(delta.build());
+            }
+        } while (handle && page.getChanges().size() == pageSize && from < latest);
+
+        if (handle && handler instanceof SyncTokenResultsHandler) {
+            ((SyncTokenResultsHandler) handler).handleResult(new SyncToken(epoch + '.' + latest));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SyncToken getLatestSyncToken(final ObjectClass objClass) {
+        checkObjectClass(objClass);
+
+        // the epoch is read first, so that a restart in between makes the token stale rather than wrong
+        final UserService provisioning = getUserService();
+        final String epoch = provisioning.getChangeEpoch();
+        return new SyncToken(epoch + '.' + provisioning.getLatestChangeToken());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Uid create(final ObjectClass objClass, final Set<Attribute> attrs, final OperationOptions options) {
+        checkObjectClass(objClass);
 
-        bld.addAttribute(AttributeBuilder.build("firstname", user.getFirstname()));
-        bld.addAttribute(AttributeBuilder.build("surname", user.getSurname()));
-        bld.addAttribute(
-                AttributeBuilder.build("birthdate", user.getBirthdate().toGregorianCalendar().getTimeInMillis()));
+        final User user = new User();
+        for (Attribute attr : attrs) {
+            if (!Uid.NAME.equals(attr.getName())) {
+                setAttribute(user, attr.getName(), AttributeUtil.getSingleValue(attr));
+            }
+        }
+        if (StringUtil.isBlank(user.getInitials())) {
+            throw new InvalidAttributeValueException("Missing initials");
+        }
+
+        final Uid uid = new Uid(user.getInitials());
+        try {
+            if (isBatching()) {
+                final BatchItem item = new BatchItem();
+                item.setOperation(BatchOperation.CREATE);
+                item.setInitials(user.getInitials());
+                item.setUser(user);
+                return submit(item, null);
+            }
+
+            return new Uid(getUserService().createUser(user).getInitials());
+        } catch (AlreadyExistsException_Exception e) {
+            throw new AlreadyExistsException(e.getMessage(), e);
+        } finally {
+            invalidate(uid);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Uid update(
+            final ObjectClass objClass,
+            final Uid uid,
+            final Set<Attribute> replaceAttributes,
+            final OperationOptions options) {
+
+        checkObjectClass(objClass);
+
+        final List<AttributeChange> changes = new ArrayList<AttributeChange>(replaceAttributes.size());
+        for (Attribute attr : replaceAttributes) {
+            changes.add(buildChange(attr.getName(), AttributeUtil.getSingleValue(attr)));
+        }
+
+        return updateUser(uid, changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the modified attributes are sent to the service; all of them are single-valued, so values to add replace
+     * the current one and values to remove clear it.
+     */
+    @Override
+    public Set<AttributeDelta> updateDelta(
+            final ObjectClass objClass,
+            final Uid uid,
+            final Set<AttributeDelta> modifications,
+            final OperationOptions options) {
+
+        checkObjectClass(objClass);
+
+        final List<AttributeChange> changes = new ArrayList<AttributeChange>(modifications.size());
+        for (AttributeDelta delta : modifications) {
+            final Object value;
+            if (delta.getValuesToReplace() != null) {
+                value = delta.getValuesToReplace().isEmpty() ? null : delta.getValuesToReplace().get(0);
+            } else if (delta.getValuesToAdd() != null && !delta.getValuesToAdd().isEmpty()) {
+                value = delta.getValuesToAdd().get(0);
+            } else {
+                value = null;
+            }
+            changes.add(buildChange(delta.getName(), value));
+        }
+
+        final Uid updated = updateUser(uid, changes);
+        return updated.equals(uid)
+                ? Collections.<AttributeDelta>emptySet()
+                : Collections.singleton(AttributeDeltaBuilder.build(Uid.NAME, updated.getUidValue()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete(final ObjectClass objClass, final Uid uid, final OperationOptions options) {
+        checkObjectClass(objClass);
+
+        try {
+            if (isBatching()) {
+                final BatchItem item = new BatchItem();
+                item.setOperation(BatchOperation.DELETE);
+                item.setInitials(uid.getUidValue());
+                submit(item, uid);
+                return;
+            }
+
+            getUserService().deleteUser(uid.getUidValue());
+        } catch (NotFoundException_Exception e) {
+            throw new UnknownUidException(uid, objClass);
+        } finally {
+            invalidate(uid);
+        }
+    }
+
+    private Uid updateUser(final Uid uid, final List<AttributeChange> changes) {
+        if (changes.isEmpty()) {
+            return uid;
+        }
+
+        Uid updated = null;
+        try {
+            if (isBatching()) {
+                final BatchItem item = new BatchItem();
+                item.setOperation(BatchOperation.UPDATE);
+                item.setInitials(uid.getUidValue());
+                item.getChanges().addAll(changes);
+                updated = submit(item, uid);
+            } else {
+                updated = new Uid(getUserService().updateUser(uid.getUidValue(), changes).getInitials());
+            }
+            return updated;
+        } catch (NotFoundException_Exception e) {
+            throw new UnknownUidException(uid, ObjectClass.ACCOUNT);
+        } catch (AlreadyExistsException_Exception e) {
+            throw new AlreadyExistsException(e.getMessage(), e);
+        } finally {
+            invalidate(uid);
+            invalidate(updated);
+        }
+    }
+
+    private boolean isBatching() {
+        return connection != null && connection.getBatchDispatcher() != null;
+    }
+
+    /**
+     * Sends the given item through the {@link BatchDispatcher} of the connection and maps its result as the equivalent
+     * single call would.
+     */
+    private Uid submit(final BatchItem item, final Uid uid) {
+        final BatchResult result;
+        try {
+            result = connection.getBatchDispatcher().submit(getUserService(), item);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ConnectorException(e);
+        }
+
+        switch (result.getStatus()) {
+            case SUCCESS:
+                return new Uid(result.getInitials());
+
+            case NOT_FOUND:
+                throw new UnknownUidException(uid, ObjectClass.ACCOUNT);
+
+            case ALREADY_EXISTS:
+                throw new AlreadyExistsException(result.getMessage());
+
+            default:
+                throw new ConnectorException(result.getMessage());
+        }
+    }
+
+    private static void checkObjectClass(final ObjectClass objClass) {
+        if (objClass == null || (!objClass.equals(ObjectClass.ACCOUNT))) {
+            throw new IllegalArgumentException("Invalid objectclass");
+        }
+    }
+
+    private UserService getUserService() {
+        final UserService provisioning = connection.getUserService();
+        if (provisioning == null) {
+            throw new IllegalStateException("Web Service client not found");
+        }
+        return provisioning;
+    }
+
+    private static AttributeChange buildChange(final String name, final Object value) {
+        // validates name and value
+        setAttribute(new User(), name, value);
+
+        final AttributeChange change = new AttributeChange();
+        change.setName(name);
+        change.setValue(value == null ? null : value.toString());
+        return change;
+    }
+
+    private static void setAttribute(final User user, final String name, final Object value) {
+        try {
+            if (KEY_ATTRIBUTES.contains(name)) {
+                user.setInitials((String) value);
+            } else if (ConnectorObjectMapper.FIRSTNAME.equals(name)) {
+                user.setFirstname((String) value);
+            } else if (ConnectorObjectMapper.SURNAME.equals(name)) {
+                user.setSurname((String) value);
+            } else if (ConnectorObjectMapper.BIRTHDATE.equals(name)) {
+                user.setBirthdate(value == null ? null : toXMLGregorianCalendar((Long) value));
+            } else {
+                throw new InvalidAttributeValueException("Unsupported attribute: " + name);
+            }
+        } catch (ClassCastException e) {
+            throw new InvalidAttributeValueException("Invalid value for " + name + ": " + value, e);
+        }
+    }
 
-        return bld;
+    private static XMLGregorianCalendar toXMLGregorianCalendar(final long millis) {
+        final GregorianCalendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis(millis);
+        return DATATYPE_FACTORY.newXMLGregorianCalendar(calendar);
     }
 }
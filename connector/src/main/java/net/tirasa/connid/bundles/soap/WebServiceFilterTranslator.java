@@ -15,10 +15,10 @@
  */
 package net.tirasa.connid.bundles.soap;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Date;
 import net.tirasa.connid.bundles.soap.utilities.Operand;
 import net.tirasa.connid.bundles.soap.utilities.Operator;
+import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
@@ -38,6 +38,8 @@ import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
  * available to help reduce the result set for the framework, which will (strictly) reapply all filters specified after
  * the connector does the initialfiltering.
  *
+ * AND and OR expressions are flattened and simplified by {@link OperandNormalizer} as they are combined.
+ *
  * Note: The generic query type is most commonly a String, but does not have to be.
  */
 public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand> {
@@ -106,7 +108,7 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
         }
 
         final String name = filter.getAttribute().getName();
-        final String value = AttributeUtil.getAsStringValue(filter.getAttribute());
+        final String value = getComparisonValue(filter.getAttribute());
         if (StringUtil.isBlank(value)) {
             return null;
         }
@@ -123,11 +125,7 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
             return null;
         }
 
-        final Set<Operand> operands = new HashSet<Operand>();
-        operands.add(leftExpression);
-        operands.add(rightExpression);
-
-        return new Operand(Operator.AND, operands);
+        return OperandNormalizer.and(leftExpression, rightExpression);
     }
 
     /**
@@ -139,11 +137,7 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
             return null;
         }
 
-        final Set<Operand> operands = new HashSet<Operand>();
-        operands.add(leftExpression);
-        operands.add(rightExpression);
-
-        return new Operand(Operator.OR, operands);
+        return OperandNormalizer.or(leftExpression, rightExpression);
     }
 
     /**
@@ -156,7 +150,7 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
         }
 
         final String name = filter.getAttribute().getName();
-        final String value = AttributeUtil.getAsStringValue(filter.getAttribute());
+        final String value = getComparisonValue(filter.getAttribute());
         if (StringUtil.isBlank(value)) {
             return null;
         }
@@ -174,11 +168,14 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
         }
 
         final String name = filter.getAttribute().getName();
-        final String value = AttributeUtil.getAsStringValue(filter.getAttribute());
+        final String value = getComparisonValue(filter.getAttribute());
         if (StringUtil.isBlank(value)) {
             return null;
         }
 
+        if (!not && isWholeNumber(name) && Long.parseLong(value) != Long.MIN_VALUE) {
+            return new Operand(Operator.GT, name, String.valueOf(Long.parseLong(value) - 1), false);
+        }
         return new Operand(Operator.LT, name, value, !not);
     }
 
@@ -192,7 +189,7 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
         }
 
         final String name = filter.getAttribute().getName();
-        final String value = AttributeUtil.getAsStringValue(filter.getAttribute());
+        final String value = getComparisonValue(filter.getAttribute());
         if (StringUtil.isBlank(value)) {
             return null;
         }
@@ -210,11 +207,48 @@ public class WebServiceFilterTranslator extends AbstractFilterTranslator<Operand
         }
 
         final String name = filter.getAttribute().getName();
-        final String value = AttributeUtil.getAsStringValue(filter.getAttribute());
+        final String value = getComparisonValue(filter.getAttribute());
         if (StringUtil.isBlank(value)) {
             return null;
         }
 
+        if (!not && isWholeNumber(name) && Long.parseLong(value) != Long.MAX_VALUE) {
+            return new Operand(Operator.LT, name, String.valueOf(Long.parseLong(value) + 1), false);
+        }
         return new Operand(Operator.GT, name, value, !not);
     }
+
+    /**
+     * Tells whether the given attribute holds whole numbers: on these, inclusive bounds are sent as strict ones, which
+     * the service answers from its sorted index rather than by scanning all users.
+     */
+    private static boolean isWholeNumber(final String name) {
+        return ConnectorObjectMapper.BIRTHDATE.equals(name);
+    }
+
+    /**
+     * Returns the value compared by an equality or range filter on the given attribute; birthdate is always sent as
+     * the decimal epoch millis expected by the service, or null if the filter value cannot be converted.
+     */
+    private static String getComparisonValue(final Attribute attribute) {
+        if (!isWholeNumber(attribute.getName())) {
+            return AttributeUtil.getAsStringValue(attribute);
+        }
+
+        final Object value = AttributeUtil.getSingleValue(attribute);
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return String.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Date) {
+            return String.valueOf(((Date) value).getTime());
+        }
+        if (value instanceof String) {
+            try {
+                return String.valueOf(Long.parseLong(((String) value).trim()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
 }
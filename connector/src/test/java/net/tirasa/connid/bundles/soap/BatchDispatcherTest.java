@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.tirasa.test.provisioningws.BatchItem;
+import net.tirasa.test.provisioningws.BatchResult;
+import net.tirasa.test.provisioningws.BatchStatus;
+import net.tirasa.test.provisioningws.UserService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchDispatcherTest {
+
+    private static final int CALLERS = 16;
+
+    /**
+     * Handles batch calls, recording the initials of the items of each.
+     */
+    private abstract static class BatchService implements InvocationHandler {
+
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            if (!"batch".equals(method.getName())) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            @SuppressWarnings("unchecked")
+            final List<BatchItem> items = (List<BatchItem>) args[0];
+            final List<String> initials = new ArrayList<String>();
+            for (BatchItem item : items) {
+                initials.add(item.getInitials());
+            }
+            batches.add(initials);
+            return batch(items);
+        }
+
+        abstract List<BatchResult> batch(List<BatchItem> items);
+
+        UserService proxy() {
+            return (UserService) Proxy.newProxyInstance(
+                    UserService.class.getClassLoader(), new Class<?>[] { UserService.class }, this);
+        }
+
+        List<String> initials() {
+            final List<String> initials = new ArrayList<String>();
+            synchronized (batches) {
+                for (List<String> batch : batches) {
+                    initials.addAll(batch);
+                }
+            }
+            Collections.sort(initials);
+            return initials;
+        }
+    }
+
+    /**
+     * Answers each item with a result carrying its initials.
+     */
+    private static class EchoService extends BatchService {
+
+        @Override
+        List<BatchResult> batch(final List<BatchItem> items) {
+            final List<BatchResult> results = new ArrayList<BatchResult>();
+            for (BatchItem item : items) {
+                final BatchResult result = new BatchResult();
+                result.setStatus(BatchStatus.SUCCESS);
+                result.setInitials(item.getInitials());
+                results.add(result);
+            }
+            return results;
+        }
+    }
+
+    private WebServiceConfiguration configuration;
+
+    private BatchDispatcher dispatcher;
+
+    private ExecutorService callers;
+
+    private static BatchItem item(final String initials) {
+        final BatchItem item = new BatchItem();
+        item.setInitials(initials);
+        return item;
+    }
+
+    private static List<String> initials(final String prefix, final int count) {
+        final List<String> initials = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            initials.add(String.format("%s%02d", prefix, i));
+        }
+        return initials;
+    }
+
+    /**
+     * Submits one item per initials at the same time, each from its own caller.
+     */
+    private List<Future<BatchResult>> submit(final UserService service, final List<String> initials) {
+        final List<Future<BatchResult>> results = new ArrayList<Future<BatchResult>>();
+        for (final String each : initials) {
+            results.add(callers.submit(new Callable<BatchResult>() {
+
+                @Override
+                public BatchResult call() throws Exception {
+                    return dispatcher.submit(service, item(each));
+                }
+            }));
+        }
+        return results;
+    }
+
+    private void acquire() {
+        dispatcher = BatchDispatcher.acquire(configuration);
+    }
+
+    @Before
+    public void setUp() {
+        configuration = new WebServiceConfiguration();
+        configuration.setEndpoint("http://localhost:8080/batch-" + System.nanoTime());
+        configuration.setBatchSize("5");
+        configuration.setBatchLinger("50");
+        configuration.setBatchMaxInFlight("2");
+        configuration.setReceiveTimeout("10");
+
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        if (dispatcher != null) {
+            BatchDispatcher.release(dispatcher);
+        }
+    }
+
+    @Test
+    public void resultsGoBackToTheirCallers() throws Exception {
+        acquire();
+        final EchoService service = new EchoService();
+        final List<String> initials = initials("u", CALLERS);
+
+        final List<Future<BatchResult>> results = submit(service.proxy(), initials);
+        for (int i = 0; i < CALLERS; i++) {
+            assertEquals(initials.get(i), results.get(i).get().getInitials());
+        }
+
+        // each item is sent once, in batches no larger than configured
+        assertEquals(initials, service.initials());
+        for (List<String> batch : service.batches) {
+            assertTrue(batch.toString(), batch.size() <= 5);
+        }
+    }
+
+    @Test
+    public void itemsGoToTheClientOfTheirCaller() throws Exception {
+        acquire();
+        final EchoService first = new EchoService();
+        final EchoService second = new EchoService();
+
+        final List<Future<BatchResult>> results = new ArrayList<Future<BatchResult>>();
+        results.addAll(submit(first.proxy(), initials("a", CALLERS / 2)));
+        results.addAll(submit(second.proxy(), initials("b", CALLERS / 2)));
+        for (Future<BatchResult> result : results) {
+            result.get();
+        }
+
+        assertEquals(initials("a", CALLERS / 2), first.initials());
+        assertEquals(initials("b", CALLERS / 2), second.initials());
+    }
+
+    @Test
+    public void failedCallFailsEveryItemOfTheBatch() throws Exception {
+        acquire();
+        final RuntimeException down = new IllegalStateException("service down");
+        final BatchService service = new BatchService() {
+
+            @Override
+            List<BatchResult> batch(final List<BatchItem> items) {
+                throw down;
+            }
+        };
+
+        for (Future<BatchResult> result : submit(service.proxy(), initials("u", CALLERS))) {
+            try {
+                result.get();
+                fail("Batch call failure not reported");
+            } catch (ExecutionException e) {
+                assertSame(down, e.getCause());
+            }
+        }
+        assertEquals(initials("u", CALLERS), service.initials());
+    }
+
+    @Test
+    public void missingResultsFailEveryItemOfTheBatch() throws Exception {
+        acquire();
+        final BatchService service = new EchoService() {
+
+            @Override
+            List<BatchResult> batch(final List<BatchItem> items) {
+                final List<BatchResult> results = super.batch(items);
+                return results.subList(0, results.size() - 1);
+            }
+        };
+
+        for (Future<BatchResult> result : submit(service.proxy(), initials("u", CALLERS))) {
+            try {
+                result.get();
+                fail("Missing batch result not reported");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().toString(), e.getCause() instanceof IllegalStateException);
+            }
+        }
+    }
+
+    @Test
+    public void loneItemDoesNotLinger() throws Exception {
+        configuration.setBatchLinger("60000");
+        acquire();
+        final EchoService service = new EchoService();
+
+        final long start = System.nanoTime();
+        for (String initials : initials("u", 3)) {
+            assertEquals(initials, dispatcher.submit(service.proxy(), item(initials)).getInitials());
+        }
+        assertTrue((System.nanoTime() - start) / 1000000L < 30000);
+    }
+}
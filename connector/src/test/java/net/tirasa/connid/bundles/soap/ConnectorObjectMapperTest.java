@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.TimeZone;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectorObjectMapperTest {
+
+    private DatatypeFactory factory;
+
+    private void assertSameMillis(final XMLGregorianCalendar calendar) {
+        assertEquals(calendar.toXMLFormat(),
+                calendar.toGregorianCalendar().getTimeInMillis(), ConnectorObjectMapper.toEpochMillis(calendar));
+    }
+
+    private void assertSameMillis(final String lexical) {
+        assertSameMillis(factory.newXMLGregorianCalendar(lexical));
+    }
+
+    @Before
+    public void setUp() throws DatatypeConfigurationException {
+        factory = DatatypeFactory.newInstance();
+    }
+
+    @Test
+    public void timezoneOffsets() {
+        assertSameMillis("1977-09-08T00:00:00Z");
+        assertSameMillis("1977-09-08T00:00:00+02:00");
+        assertSameMillis("1977-09-08T23:30:00-05:30");
+        assertSameMillis("1977-12-31T23:59:59.999+14:00");
+        assertSameMillis("1978-01-01T00:00:00-14:00");
+        assertSameMillis("1969-12-31T23:59:59.001Z");
+        assertSameMillis("2038-01-19T03:14:08+00:45");
+
+        // date only, as sent for birthdates
+        assertSameMillis("1977-09-08Z");
+        assertSameMillis("1977-09-08+09:00");
+    }
+
+    @Test
+    public void leapYears() {
+        assertSameMillis("2000-02-29T12:00:00Z");
+        assertSameMillis("2000-03-01T00:00:00Z");
+        assertSameMillis("1900-02-28T12:00:00Z");
+        assertSameMillis("1900-03-01T00:00:00Z");
+        assertSameMillis("2004-02-29T00:00:00+01:00");
+        assertSameMillis("2100-03-01T00:00:00Z");
+        assertSameMillis("1600-02-29T00:00:00Z");
+    }
+
+    @Test
+    public void gregorianCutover() {
+        assertSameMillis("1583-01-01T00:00:00Z");
+        assertSameMillis("1583-01-01T00:00:00+01:00");
+        assertSameMillis("1582-12-31T23:59:59.999-01:00");
+        assertSameMillis("1582-10-15T00:00:00Z");
+        assertSameMillis("1582-10-04T00:00:00Z");
+        assertSameMillis("1000-02-28T00:00:00Z");
+        assertSameMillis("0001-01-01T00:00:00Z");
+        assertSameMillis("-0044-03-15T12:00:00Z");
+    }
+
+    @Test
+    public void undefinedFields() {
+        // without a timezone, the default one applies
+        TimeZone defaultTimeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Europe/Rome"));
+            assertSameMillis("1977-09-08");
+            assertSameMillis("1977-09-08T10:00:00");
+        } finally {
+            TimeZone.setDefault(defaultTimeZone);
+        }
+
+        XMLGregorianCalendar calendar = factory.newXMLGregorianCalendar();
+        calendar.setYear(1977);
+        calendar.setMonth(DatatypeConstants.SEPTEMBER);
+        calendar.setTimezone(60);
+        assertSameMillis(calendar);
+    }
+
+    @Test
+    public void randomInstants() {
+        Random random = new Random(1583);
+        for (int i = 0; i < 10000; i++) {
+            XMLGregorianCalendar calendar = factory.newXMLGregorianCalendar(
+                    1500 + random.nextInt(1000),
+                    1 + random.nextInt(12),
+                    1 + random.nextInt(28),
+                    random.nextInt(24),
+                    random.nextInt(60),
+                    random.nextInt(60),
+                    random.nextInt(1000),
+                    (random.nextInt(57) - 28) * 30);
+            assertSameMillis(calendar);
+        }
+    }
+}
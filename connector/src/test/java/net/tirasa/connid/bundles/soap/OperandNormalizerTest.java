@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2011 ConnId (connid-dev@googlegroups.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tirasa.connid.bundles.soap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.connid.bundles.soap.utilities.Operator;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.Test;
+
+public class OperandNormalizerTest {
+
+    private static Operand eq(final String name, final String value) {
+        return new Operand(Operator.EQ, name, value, false);
+    }
+
+    private static Operand gt(final String name, final String value) {
+        return new Operand(Operator.GT, name, value, false);
+    }
+
+    private static Operand lt(final String name, final String value) {
+        return new Operand(Operator.LT, name, value, false);
+    }
+
+    private static Operand not(final Operand operand) {
+        return new Operand(operand.getOp(), operand.getName(), operand.getValue(), !operand.isNot());
+    }
+
+    private static List<Operand> operands(final Operand operand, final Operator op) {
+        assertEquals(op, operand.getOp());
+        assertFalse(operand.isNot());
+        return new ArrayList<Operand>(operand.getOperands());
+    }
+
+    private static void assertLeaf(
+            final Operand operand, final Operator op, final String name, final String value, final boolean not) {
+
+        assertEquals(op, operand.getOp());
+        assertEquals(name, operand.getName());
+        assertEquals(value, operand.getValue());
+        assertEquals(not, operand.isNot());
+    }
+
+    @Test
+    public void negatedBoundsAdmitUsersWithoutAttribute() {
+        // users without a birthdate match both, so the interval is not empty
+        List<Operand> result = operands(OperandNormalizer.and(
+                not(lt(ConnectorObjectMapper.BIRTHDATE, "5")),
+                not(gt(ConnectorObjectMapper.BIRTHDATE, "3"))), Operator.AND);
+        assertEquals(2, result.size());
+        assertLeaf(result.get(0), Operator.LT, ConnectorObjectMapper.BIRTHDATE, "5", true);
+        assertLeaf(result.get(1), Operator.GT, ConnectorObjectMapper.BIRTHDATE, "3", true);
+
+        // nor do they become an equality, which users without a surname would not match
+        result = operands(OperandNormalizer.and(
+                not(lt(ConnectorObjectMapper.SURNAME, "m")),
+                not(gt(ConnectorObjectMapper.SURNAME, "m"))), Operator.AND);
+        assertEquals(2, result.size());
+        assertTrue(result.get(0).isNot());
+        assertTrue(result.get(1).isNot());
+
+        // an OR keeps a strict bound and a negated one on the same side apart
+        result = operands(OperandNormalizer.or(
+                gt(ConnectorObjectMapper.BIRTHDATE, "5"),
+                not(lt(ConnectorObjectMapper.BIRTHDATE, "3"))), Operator.OR);
+        assertEquals(2, result.size());
+        assertLeaf(result.get(0), Operator.GT, ConnectorObjectMapper.BIRTHDATE, "5", false);
+        assertLeaf(result.get(1), Operator.LT, ConnectorObjectMapper.BIRTHDATE, "3", true);
+    }
+
+    @Test
+    public void orUnionsPointsAndBounds() {
+        List<Operand> result = operands(OperandNormalizer.or(
+                OperandNormalizer.or(eq(ConnectorObjectMapper.INITIALS, "b"), eq(ConnectorObjectMapper.INITIALS, "a")),
+                gt(ConnectorObjectMapper.INITIALS, "c")), Operator.OR);
+        assertEquals(3, result.size());
+        assertLeaf(result.get(0), Operator.EQ, ConnectorObjectMapper.INITIALS, "a", false);
+        assertLeaf(result.get(1), Operator.EQ, ConnectorObjectMapper.INITIALS, "b", false);
+        assertLeaf(result.get(2), Operator.GT, ConnectorObjectMapper.INITIALS, "c", false);
+
+        // points within a bound are dropped
+        Operand folded = OperandNormalizer.or(
+                eq(ConnectorObjectMapper.SURNAME, "z"), gt(ConnectorObjectMapper.SURNAME, "m"));
+        assertLeaf(folded, Operator.GT, ConnectorObjectMapper.SURNAME, "m", false);
+
+        // the looser bound is kept
+        folded = OperandNormalizer.or(
+                lt(ConnectorObjectMapper.BIRTHDATE, "10"), lt(ConnectorObjectMapper.BIRTHDATE, "9"));
+        assertLeaf(folded, Operator.LT, ConnectorObjectMapper.BIRTHDATE, "10", false);
+    }
+
+    @Test
+    public void emptyIntervals() {
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                gt(ConnectorObjectMapper.SURNAME, "n"), lt(ConnectorObjectMapper.SURNAME, "m"))));
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                gt(ConnectorObjectMapper.SURNAME, "m"), lt(ConnectorObjectMapper.SURNAME, "m"))));
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                eq(ConnectorObjectMapper.FIRSTNAME, "a"), eq(ConnectorObjectMapper.FIRSTNAME, "b"))));
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                eq(ConnectorObjectMapper.BIRTHDATE, "7"), lt(ConnectorObjectMapper.BIRTHDATE, "5"))));
+
+        // birth dates are compared as numbers, not as strings
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                gt(ConnectorObjectMapper.BIRTHDATE, "10"), lt(ConnectorObjectMapper.BIRTHDATE, "9"))));
+
+        // a strict bound rejects users without the attribute, so the negated one cannot rescue them
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                gt(ConnectorObjectMapper.BIRTHDATE, "5"), not(gt(ConnectorObjectMapper.BIRTHDATE, "3")))));
+
+        // a point within the bounds remains
+        final Operand point = OperandNormalizer.and(
+                eq(ConnectorObjectMapper.BIRTHDATE, "7"), gt(ConnectorObjectMapper.BIRTHDATE, "5"));
+        assertLeaf(point, Operator.EQ, ConnectorObjectMapper.BIRTHDATE, "7", false);
+    }
+
+    @Test
+    public void keyAttributesAreInitials() {
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(eq(Name.NAME, "a"), eq(Uid.NAME, "b"))));
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(
+                eq(Uid.NAME, "a"), gt(ConnectorObjectMapper.INITIALS, "a"))));
+
+        final Operand same = OperandNormalizer.and(eq(Name.NAME, "a"), eq(Uid.NAME, "a"));
+        assertEquals(Operator.EQ, same.getOp());
+        assertEquals("a", same.getValue());
+
+        final List<Operand> result = operands(OperandNormalizer.or(
+                eq(Uid.NAME, "b"), eq(ConnectorObjectMapper.INITIALS, "a")), Operator.OR);
+        assertEquals(2, result.size());
+        assertLeaf(result.get(0), Operator.EQ, ConnectorObjectMapper.INITIALS, "a", false);
+        assertLeaf(result.get(1), Operator.EQ, Uid.NAME, "b", false);
+    }
+
+    @Test
+    public void contradictionsAreConstant() {
+        final Operand leaf = eq(ConnectorObjectMapper.SURNAME, "rossi");
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(leaf, not(leaf))));
+        assertTrue(OperandNormalizer.isTrue(OperandNormalizer.or(leaf, not(leaf))));
+
+        // also on AND / OR nodes, whatever the order of their operands
+        final Operand node = OperandNormalizer.or(
+                OperandNormalizer.and(eq(ConnectorObjectMapper.FIRSTNAME, "mario"), leaf),
+                eq(ConnectorObjectMapper.INITIALS, "mr"));
+        final Operand swapped = OperandNormalizer.or(
+                eq(ConnectorObjectMapper.INITIALS, "mr"),
+                OperandNormalizer.and(leaf, eq(ConnectorObjectMapper.FIRSTNAME, "mario")));
+        final Operand negated = new Operand(swapped.getOp(), swapped.getOperands(), true);
+        assertTrue(OperandNormalizer.isFalse(OperandNormalizer.and(node, negated)));
+
+        // constants are absorbed
+        final Operand alwaysTrue = OperandNormalizer.or(leaf, not(leaf));
+        assertLeaf(OperandNormalizer.and(alwaysTrue, leaf), Operator.EQ, ConnectorObjectMapper.SURNAME, "rossi", false);
+        assertTrue(OperandNormalizer.isTrue(OperandNormalizer.or(alwaysTrue, leaf)));
+    }
+}
@@ -0,0 +1,11 @@
+package net.tirasa.test.provisioningws;
+
+public class AlreadyExistsException extends Exception {
+
+    private static final long serialVersionUID = 2617397846373093124L;
+
+    public AlreadyExistsException(final String initials) {
+        super("User with initials " + initials + " already exists");
+    }
+
+}
@@ -0,0 +1,28 @@
+package net.tirasa.test.provisioningws;
+
+/**
+ * New value for a single user attribute; a null value clears the attribute. Birthdate values are epoch millis.
+ */
+public class AttributeChange {
+
+    private String name;
+
+    private String value;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+}
@@ -0,0 +1,51 @@
+package net.tirasa.test.provisioningws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single write in a batch: CREATE uses user, UPDATE uses initials and changes, DELETE uses initials.
+ */
+public class BatchItem {
+
+    private BatchOperation operation;
+
+    private String initials;
+
+    private User user;
+
+    private List<AttributeChange> changes = new ArrayList<>();
+
+    public BatchOperation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(BatchOperation operation) {
+        this.operation = operation;
+    }
+
+    public String getInitials() {
+        return initials;
+    }
+
+    public void setInitials(String initials) {
+        this.initials = initials;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public List<AttributeChange> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<AttributeChange> changes) {
+        this.changes = changes;
+    }
+
+}
@@ -0,0 +1,9 @@
+package net.tirasa.test.provisioningws;
+
+public enum BatchOperation {
+
+    CREATE,
+    UPDATE,
+    DELETE;
+
+}
@@ -0,0 +1,41 @@
+package net.tirasa.test.provisioningws;
+
+/**
+ * Outcome of a single batch item, reported at the same position as the item.
+ */
+public class BatchResult {
+
+    private BatchStatus status;
+
+    private String initials;
+
+    private String message;
+
+    public BatchStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(BatchStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * @return initials of the user after the operation
+     */
+    public String getInitials() {
+        return initials;
+    }
+
+    public void setInitials(String initials) {
+        this.initials = initials;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+}
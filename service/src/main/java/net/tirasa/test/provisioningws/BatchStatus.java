@@ -0,0 +1,10 @@
+package net.tirasa.test.provisioningws;
+
+public enum BatchStatus {
+
+    SUCCESS,
+    NOT_FOUND,
+    ALREADY_EXISTS,
+    FAILURE;
+
+}
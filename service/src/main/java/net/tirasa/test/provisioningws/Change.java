@@ -0,0 +1,51 @@
+package net.tirasa.test.provisioningws;
+
+public class Change {
+
+    private long token;
+
+    private ChangeType type;
+
+    private String initials;
+
+    private User user;
+
+    /**
+     * @return sequence number of this change, increasing with every write
+     */
+    public long getToken() {
+        return token;
+    }
+
+    public void setToken(long token) {
+        this.token = token;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    public void setType(ChangeType type) {
+        this.type = type;
+    }
+
+    public String getInitials() {
+        return initials;
+    }
+
+    public void setInitials(String initials) {
+        this.initials = initials;
+    }
+
+    /**
+     * @return the user as written by this change, or null for DELETE
+     */
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+}
@@ -0,0 +1,55 @@
+package net.tirasa.test.provisioningws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangePage {
+
+    private List<Change> changes = new ArrayList<>();
+
+    private String epoch;
+
+    private long latestToken;
+
+    private boolean truncated;
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return epoch of the change log the tokens belong to; tokens of another epoch cannot be resumed
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(String epoch) {
+        this.epoch = epoch;
+    }
+
+    public long getLatestToken() {
+        return latestToken;
+    }
+
+    public void setLatestToken(long latestToken) {
+        this.latestToken = latestToken;
+    }
+
+    /**
+     * @return whether some changes following the requested token are no longer available, so that a full read is
+     * needed to catch up
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+}
@@ -0,0 +1,31 @@
+package net.tirasa.test.provisioningws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class UserPage {
+
+    private List<User> users = new ArrayList<>();
+
+    private String cookie;
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<User> users) {
+        this.users = users;
+    }
+
+    /**
+     * @return opaque continuation to pass for the next page, or null if this is the last one
+     */
+    public String getCookie() {
+        return cookie;
+    }
+
+    public void setCookie(String cookie) {
+        this.cookie = cookie;
+    }
+
+}
@@ -3,6 +3,7 @@ package net.tirasa.test.provisioningws;
 import java.util.List;
 import javax.jws.WebParam;
 import javax.jws.WebService;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
 
 @WebService
 public interface UserService {
@@ -10,4 +11,95 @@ public interface UserService {
     List<User> getUsers();
 
     User getUser(@WebParam(name = "initials") String initials) throws NotFoundException;
+
+    /**
+     * Returns the users matching the given query; when attributes are given, only those fields (and initials) are
+     * returned.
+     */
+    List<User> searchUsers(
+            @WebParam(name = "query") Operand query,
+            @WebParam(name = "attributes") List<String> attributes);
+
+    UserPage getUsersPage(
+            @WebParam(name = "query") Operand query,
+            @WebParam(name = "pageSize") int pageSize,
+            @WebParam(name = "cookie") String cookie,
+            @WebParam(name = "attributes") List<String> attributes);
+
+    /**
+     * Returns the current version of the users, which changes with every write and on restart, so that clients
+     * keeping a copy of all users know when to read them again.
+     */
+    String getUsersVersion();
+
+    /**
+     * Splits users into at most the given number of initials ranges of similar size, for parallel scans: returns the
+     * initials closing each range but the last, in order.
+     */
+    List<String> getPartitionBounds(@WebParam(name = "partitions") int partitions);
+
+    /**
+     * As {@link #getUsersPage}, restricted to the users whose initials follow from (exclusive) up to to (inclusive);
+     * null bounds are open.
+     */
+    UserPage getPartitionPage(
+            @WebParam(name = "query") Operand query,
+            @WebParam(name = "from") String from,
+            @WebParam(name = "to") String to,
+            @WebParam(name = "pageSize") int pageSize,
+            @WebParam(name = "cookie") String cookie,
+            @WebParam(name = "attributes") List<String> attributes);
+
+    /**
+     * As {@link #getUsersPage}, with users ordered by the given attribute and then by initials, both descending if
+     * requested; users without the attribute come last. The cookie holds the position of the last user returned, so
+     * that any page is read from the ordered indexes at the cost of the first one.
+     */
+    UserPage getSortedPage(
+            @WebParam(name = "query") Operand query,
+            @WebParam(name = "sortBy") String sortBy,
+            @WebParam(name = "descending") boolean descending,
+            @WebParam(name = "pageSize") int pageSize,
+            @WebParam(name = "cookie") String cookie,
+            @WebParam(name = "attributes") List<String> attributes);
+
+    /**
+     * Returns the number of users matching the given query, without reading them when the store indexes suffice.
+     */
+    int countUsers(@WebParam(name = "query") Operand query);
+
+    /**
+     * Tells whether a user with the given initials exists, without returning it.
+     */
+    boolean userExists(@WebParam(name = "initials") String initials);
+
+    User createUser(@WebParam(name = "user") User user) throws AlreadyExistsException;
+
+    User updateUser(
+            @WebParam(name = "initials") String initials,
+            @WebParam(name = "changes") List<AttributeChange> changes)
+            throws NotFoundException, AlreadyExistsException;
+
+    void deleteUser(@WebParam(name = "initials") String initials) throws NotFoundException;
+
+    /**
+     * Runs the given writes in order; each item gets its own result, so one failure does not abort the others.
+     */
+    List<BatchResult> batch(@WebParam(name = "items") List<BatchItem> items);
+
+    /**
+     * Returns at most max changes following the given token, which is 0 or the token of the last change seen in the
+     * given epoch; a token of another epoch makes the page truncated.
+     */
+    ChangePage getChangesSince(
+            @WebParam(name = "epoch") String epoch,
+            @WebParam(name = "token") long token,
+            @WebParam(name = "max") int max);
+
+    long getLatestChangeToken();
+
+    /**
+     * Returns the epoch of the change tokens, which changes when the service restarts.
+     */
+    String getChangeEpoch();
 }
@@ -0,0 +1,98 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.tirasa.test.provisioningws.Change;
+import net.tirasa.test.provisioningws.ChangePage;
+import net.tirasa.test.provisioningws.ChangeType;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * In-memory log of the latest writes, each with a sequence number increasing by one.
+ *
+ * Sequence numbers start over with every log, so each log also has a random epoch telling its tokens apart from the
+ * ones of the logs before a restart.
+ *
+ * Appends must be serialized by the caller, in the same order as the writes they record; reads are lock-free.
+ */
+public class ChangeLog {
+
+    private final String epoch = UUID.randomUUID().toString();
+
+    private final ConcurrentSkipListMap<Long, Change> changes = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong latest = new AtomicLong();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private int capacity = 100000;
+
+    /**
+     * @return maximum number of changes retained
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void append(final ChangeType type, final String initials, final User user) {
+        Change change = new Change();
+        change.setToken(latest.get() + 1);
+        change.setType(type);
+        change.setInitials(initials);
+        change.setUser(user);
+
+        changes.put(change.getToken(), change);
+        latest.set(change.getToken());
+
+        if (size.incrementAndGet() > capacity) {
+            changes.pollFirstEntry();
+            size.decrementAndGet();
+        }
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public long getLatestToken() {
+        return latest.get();
+    }
+
+    /**
+     * @param epoch epoch of the given token
+     * @param token token of the last change already seen, 0 to start from the first change
+     * @param max maximum number of changes to return
+     * @return changes following the given token, in order
+     */
+    public ChangePage since(final String epoch, final long token, final int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("Maximum number of changes must be positive: " + max);
+        }
+
+        ChangePage page = new ChangePage();
+        long current = latest.get();
+        page.setEpoch(this.epoch);
+        page.setLatestToken(current);
+
+        Map.Entry<Long, Change> first = changes.firstEntry();
+        long firstToken = first == null ? current + 1 : first.getKey();
+        // a token of another epoch comes from before a restart, whatever its sequence number
+        page.setTruncated(token > 0 && !this.epoch.equals(epoch)
+                || token > current || token + 1 < firstToken && token < current);
+
+        for (Change change : changes.tailMap(token, false).values()) {
+            if (change.getToken() > current || page.getChanges().size() == max) {
+                break;
+            }
+            page.getChanges().add(change);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,385 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import net.tirasa.test.provisioningws.AlreadyExistsException;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * {@link UserStore} keeping users in a {@link ConcurrentSkipListMap}, with sorted secondary indexes on firstname,
+ * surname and birthdate.
+ *
+ * Reads never lock; writes are serialized so that the primary map and the indexes are updated together.
+ */
+public class InMemoryUserStore implements UserStore {
+
+    private final ConcurrentSkipListMap<String, User> users = new ConcurrentSkipListMap<>();
+
+    private final Map<UserAttribute, ConcurrentSkipListMap<Comparable<?>, Group>> indexes =
+            new EnumMap<>(UserAttribute.class);
+
+    /**
+     * For each indexed attribute, the initials of the users without a value, which come last when ordering by it.
+     */
+    private final Map<UserAttribute, NavigableSet<String>> unvalued = new EnumMap<>(UserAttribute.class);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Lock writeLock = new ReentrantLock();
+
+    public InMemoryUserStore() {
+        indexes.put(UserAttribute.FIRSTNAME, new ConcurrentSkipListMap<Comparable<?>, Group>());
+        indexes.put(UserAttribute.SURNAME, new ConcurrentSkipListMap<Comparable<?>, Group>());
+        indexes.put(UserAttribute.BIRTHDATE, new ConcurrentSkipListMap<Comparable<?>, Group>());
+        for (UserAttribute attribute : indexes.keySet()) {
+            unvalued.put(attribute, new ConcurrentSkipListSet<String>());
+        }
+    }
+
+    @Override
+    public User get(final String initials) {
+        return initials == null ? null : users.get(initials);
+    }
+
+    @Override
+    public boolean contains(final String initials) {
+        return initials != null && users.containsKey(initials);
+    }
+
+    @Override
+    public void put(final User user) {
+        if (user == null || user.getInitials() == null) {
+            throw new IllegalArgumentException("Users must have initials");
+        }
+
+        User copy = copy(user);
+        writeLock.lock();
+        try {
+            User previous = users.put(copy.getInitials(), copy);
+            if (previous == null) {
+                size.incrementAndGet();
+            } else {
+                unindex(previous);
+            }
+            index(copy);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean add(final User user) {
+        if (user == null || user.getInitials() == null) {
+            throw new IllegalArgumentException("Users must have initials");
+        }
+
+        writeLock.lock();
+        try {
+            if (users.containsKey(user.getInitials())) {
+                return false;
+            }
+            put(user);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public User update(final String initials, final UnaryOperator<User> change)
+            throws AlreadyExistsException {
+        if (initials == null) {
+            return null;
+        }
+
+        writeLock.lock();
+        try {
+            User current = users.get(initials);
+            if (current == null) {
+                return null;
+            }
+
+            User updated = change.apply(copy(current));
+            if (updated.getInitials() == null) {
+                throw new IllegalArgumentException("Users must have initials");
+            }
+            if (!initials.equals(updated.getInitials())) {
+                if (users.containsKey(updated.getInitials())) {
+                    throw new AlreadyExistsException(updated.getInitials());
+                }
+                remove(initials);
+            }
+            put(updated);
+            return users.get(updated.getInitials());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public User remove(final String initials) {
+        if (initials == null) {
+            return null;
+        }
+
+        writeLock.lock();
+        try {
+            User removed = users.remove(initials);
+            if (removed != null) {
+                size.decrementAndGet();
+                unindex(removed);
+            }
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public Collection<User> users() {
+        return users.values();
+    }
+
+    @Override
+    public Collection<User> usersAfter(final String initials) {
+        return users.tailMap(initials, false).values();
+    }
+
+    @Override
+    public Collection<String> initials() {
+        return users.keySet();
+    }
+
+    @Override
+    public boolean isIndexed(final UserAttribute attribute) {
+        return attribute == UserAttribute.INITIALS || indexes.containsKey(attribute);
+    }
+
+    @Override
+    public Iterable<String> initialsInRange(
+            final UserAttribute attribute,
+            final Comparable<?> from, final boolean fromInclusive,
+            final Comparable<?> to, final boolean toInclusive,
+            final String after) {
+
+        if (attribute == UserAttribute.INITIALS) {
+            boolean seek = after != null && (from == null || after.compareTo((String) from) >= 0);
+            return seek
+                    ? range(users, after, false, (String) to, toInclusive).navigableKeySet()
+                    : range(users, (String) from, fromInclusive, (String) to, toInclusive).navigableKeySet();
+        }
+
+        // an equality seeks straight into its own group, a range merges the groups of all its values
+        final Collection<Group> groups;
+        if (from != null && from.equals(to)) {
+            Group group = fromInclusive && toInclusive ? indexes.get(attribute).get(from) : null;
+            groups = group == null ? Collections.<Group>emptyList() : Collections.singletonList(group);
+        } else {
+            groups = range(indexes.get(attribute), from, fromInclusive, to, toInclusive).values();
+        }
+        return () -> {
+            List<NavigableSet<String>> following = new ArrayList<>();
+            for (Group group : groups) {
+                following.add(after == null ? group.initials : group.initials.tailSet(after, false));
+            }
+            return InitialsMerge.of(following);
+        };
+    }
+
+    /**
+     * Sums the counts kept by the index groups in the range, going through one entry per value rather than per user;
+     * on initials, where each value is a single user, the count is linear in the users in the range.
+     */
+    @Override
+    public int countInRange(
+            final UserAttribute attribute,
+            final Comparable<?> from, final boolean fromInclusive,
+            final Comparable<?> to, final boolean toInclusive) {
+
+        if (attribute == UserAttribute.INITIALS) {
+            return range(users, (String) from, fromInclusive, (String) to, toInclusive).size();
+        }
+
+        int count = 0;
+        for (Group group : range(indexes.get(attribute), from, fromInclusive, to, toInclusive).values()) {
+            count += group.size.get();
+        }
+        return count;
+    }
+
+    @Override
+    public Iterable<User> usersOrderedBy(
+            final UserAttribute attribute,
+            final boolean ascending,
+            final Comparable<?> afterValue,
+            final String afterInitials) {
+
+        if (attribute == UserAttribute.INITIALS) {
+            final NavigableMap<String, User> primary = ascending ? users : users.descendingMap();
+            return afterInitials == null ? primary.values() : primary.tailMap(afterInitials, false).values();
+        }
+
+        final NavigableMap<Comparable<?>, Group> index = ascending
+                ? indexes.get(attribute)
+                : indexes.get(attribute).descendingMap();
+        return () -> new Iterator<User>() {
+
+            // the rest of the group of the last user returned, then the following groups, then users without value
+            private Iterator<String> keys = afterInitials == null || afterValue == null
+                    ? Collections.<String>emptyIterator()
+                    : ordered(index.getOrDefault(afterValue, Group.EMPTY).initials).
+                            tailSet(afterInitials, false).iterator();
+
+            private final Iterator<Group> groups = afterInitials == null
+                    ? index.values().iterator()
+                    : afterValue == null
+                            ? Collections.<Group>emptyIterator()
+                            : index.tailMap(afterValue, false).values().iterator();
+
+            private final Iterator<String> tail = (afterInitials == null || afterValue != null
+                    ? ordered(unvalued.get(attribute))
+                    : ordered(unvalued.get(attribute)).tailSet(afterInitials, false)).iterator();
+
+            private User next = advance();
+
+            private NavigableSet<String> ordered(final NavigableSet<String> initials) {
+                return ascending ? initials : initials.descendingSet();
+            }
+
+            private User advance() {
+                while (keys.hasNext() || groups.hasNext()) {
+                    if (!keys.hasNext()) {
+                        keys = ordered(groups.next().initials).iterator();
+                        continue;
+                    }
+                    // may have been removed in the meantime
+                    User user = users.get(keys.next());
+                    if (user != null) {
+                        return user;
+                    }
+                }
+                while (tail.hasNext()) {
+                    // may have been removed, or given a value, in the meantime
+                    User user = users.get(tail.next());
+                    if (user != null && attribute.get(user) == null) {
+                        return user;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                User result = next;
+                next = advance();
+                return result;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> NavigableMap<K, V> range(
+            final ConcurrentSkipListMap<K, V> map,
+            final K from, final boolean fromInclusive,
+            final K to, final boolean toInclusive) {
+
+        if (from != null && to != null && ((Comparable<K>) from).compareTo(to) > 0) {
+            return Collections.emptyNavigableMap();
+        }
+        if (from == null && to == null) {
+            return map;
+        }
+        if (from == null) {
+            return map.headMap(to, toInclusive);
+        }
+        if (to == null) {
+            return map.tailMap(from, fromInclusive);
+        }
+        return map.subMap(from, fromInclusive, to, toInclusive);
+    }
+
+    private void index(final User user) {
+        for (Map.Entry<UserAttribute, ConcurrentSkipListMap<Comparable<?>, Group>> entry : indexes.entrySet()) {
+            Comparable<?> value = entry.getKey().get(user);
+            if (value != null) {
+                Group group = entry.getValue().get(value);
+                if (group == null) {
+                    group = new Group();
+                    entry.getValue().put(value, group);
+                }
+                if (group.initials.add(user.getInitials())) {
+                    group.size.incrementAndGet();
+                }
+            } else {
+                unvalued.get(entry.getKey()).add(user.getInitials());
+            }
+        }
+    }
+
+    private void unindex(final User user) {
+        for (Map.Entry<UserAttribute, ConcurrentSkipListMap<Comparable<?>, Group>> entry : indexes.entrySet()) {
+            Comparable<?> value = entry.getKey().get(user);
+            if (value != null) {
+                Group group = entry.getValue().get(value);
+                if (group != null && group.initials.remove(user.getInitials())
+                        && group.size.decrementAndGet() == 0) {
+
+                    entry.getValue().remove(value);
+                }
+            } else {
+                unvalued.get(entry.getKey()).remove(user.getInitials());
+            }
+        }
+    }
+
+    static User copy(final User user) {
+        User copy = new User();
+        copy.setInitials(user.getInitials());
+        copy.setFirstname(user.getFirstname());
+        copy.setSurname(user.getSurname());
+        copy.setBirthdate(user.getBirthdate() == null ? null : new Date(user.getBirthdate().getTime()));
+        return copy;
+    }
+
+    /**
+     * The initials of the users with the same value of an indexed attribute, and their number: the size of a
+     * {@link ConcurrentSkipListSet} is computed by going through all of its elements. Both are only changed under the
+     * write lock.
+     */
+    private static final class Group {
+
+        private static final Group EMPTY = new Group();
+
+        private final NavigableSet<String> initials = new ConcurrentSkipListSet<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+    }
+}
@@ -0,0 +1,85 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sequences of initials, each already in order, into a single ordered sequence without duplicates.
+ *
+ * Only the head of each sequence is held, so merging G sequences costs O(G) to start and O(log G) per initials.
+ */
+public final class InitialsMerge implements Iterator<String> {
+
+    private static final class Head implements Comparable<Head> {
+
+        private final Iterator<String> rest;
+
+        private String initials;
+
+        Head(final Iterator<String> rest) {
+            this.rest = rest;
+            this.initials = rest.next();
+        }
+
+        boolean advance() {
+            if (rest.hasNext()) {
+                initials = rest.next();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(final Head other) {
+            return initials.compareTo(other.initials);
+        }
+    }
+
+    public static Iterator<String> of(final Collection<? extends Iterable<String>> sequences) {
+        return sequences.size() == 1 ? sequences.iterator().next().iterator() : new InitialsMerge(sequences);
+    }
+
+    private final PriorityQueue<Head> heads;
+
+    private InitialsMerge(final Collection<? extends Iterable<String>> sequences) {
+        List<Head> started = new ArrayList<>(sequences.size());
+        for (Iterable<String> sequence : sequences) {
+            Iterator<String> iterator = sequence.iterator();
+            if (iterator.hasNext()) {
+                started.add(new Head(iterator));
+            }
+        }
+        // built from a collection, the queue is heapified in linear time
+        this.heads = new PriorityQueue<>(started);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        Head head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+
+        String result = head.initials;
+        if (head.advance()) {
+            heads.add(head);
+        }
+        // drops the same initials from the other sequences
+        while (!heads.isEmpty() && heads.peek().initials.equals(result)) {
+            Head duplicate = heads.poll();
+            if (duplicate.advance()) {
+                heads.add(duplicate);
+            }
+        }
+        return result;
+    }
+}
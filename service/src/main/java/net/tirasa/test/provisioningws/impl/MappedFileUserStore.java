@@ -0,0 +1,1056 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.tirasa.test.provisioningws.AlreadyExistsException;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * {@link UserStore} persisting users in an append-only, memory-mapped file.
+ *
+ * The file starts with a magic number, a version and a random id, followed by records laid out as
+ * {@code [int length][byte type][initials][firstname][surname][long birthdate]}, where strings are a short byte
+ * length (-1 for null) followed by UTF-8 bytes and birthdate is epoch millis ({@link Long#MIN_VALUE} for null);
+ * DELETE records only carry initials. The file is mapped in fixed-size segments that records never cross.
+ *
+ * The initials are indexed by a second mapped file, next to the first one with the {@code .keys} suffix, holding the
+ * offsets of the live records sorted by initials up to a given position of the log, along with the id of the file it
+ * belongs to. Only the records written after that position are replayed at open and kept on heap; the key index is
+ * rewritten on close, by {@link #checkpoint()} once enough keys are on heap, and by {@link #compact()}, which also
+ * reclaims the records overwritten or deleted once they make up enough of the file. Users are decoded on read.
+ *
+ * There are no indexes on attributes other than initials: queries on them scan the records, as planned by
+ * {@link QueryPlan}, and sorting by them reads and sorts all users.
+ */
+public class MappedFileUserStore implements UserStore {
+
+    private static final Logger LOG = Logger.getLogger(MappedFileUserStore.class.getName());
+
+    private static final int MAGIC = 0x55535231;
+
+    private static final int KEYS_MAGIC = 0x55534b31;
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int KEYS_HEADER_SIZE = 40;
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int END = 0;
+
+    private static final int PADDING = -1;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    /**
+     * Offset of the keys written after the key index and deleted since, which the index still lists.
+     */
+    private static final long REMOVED = -1;
+
+    /**
+     * Minimum number of keys written after the key index for a checkpoint to run.
+     */
+    private static final int CHECKPOINT_KEYS = 10000;
+
+    /**
+     * Offsets of the live records sorted by initials, as of the given position of the log.
+     */
+    private static final class KeyIndex {
+
+        private static final KeyIndex EMPTY = new KeyIndex(null, 0, HEADER_SIZE, 0);
+
+        private final ByteBuffer buffer;
+
+        private final int count;
+
+        private final long tail;
+
+        private final long garbage;
+
+        KeyIndex(final ByteBuffer buffer, final int count, final long tail, final long garbage) {
+            this.buffer = buffer;
+            this.count = count;
+            this.tail = tail;
+            this.garbage = garbage;
+        }
+
+        long offset(final int index) {
+            return buffer.getLong(KEYS_HEADER_SIZE + index * 8);
+        }
+    }
+
+    /**
+     * Writes a key index file from the offsets of the live records, given in initials order.
+     */
+    private static final class KeyWriter {
+
+        private final File target;
+
+        private final File temporary;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        private int count;
+
+        KeyWriter(final File target) throws IOException {
+            this.target = target;
+            this.temporary = new File(target.getPath() + ".tmp");
+            this.channel = FileChannel.open(temporary.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.channel.position(KEYS_HEADER_SIZE);
+        }
+
+        void add(final long offset) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putLong(offset);
+            count++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes the header, last so that an interrupted write is never taken for a complete index, and replaces the
+         * target file.
+         */
+        void finish(final long id, final long tail, final long garbage) throws IOException {
+            try {
+                flush();
+                buffer.putInt(KEYS_MAGIC).putInt(VERSION).putLong(id).putLong(tail).putLong(garbage).putInt(count);
+                buffer.flip();
+                channel.write(buffer, 0);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            Files.move(temporary.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Mapped file, its key index and the offsets of the records written after the index; replaced as a whole by
+     * checkpoints and compaction, so that readers always see offsets matching the segments they read from.
+     */
+    private static final class Generation {
+
+        private final FileChannel channel;
+
+        private final List<MappedByteBuffer> segments;
+
+        private final long id;
+
+        private final KeyIndex keys;
+
+        // REMOVED for the keys of the index deleted since
+        private final ConcurrentSkipListMap<String, Long> later = new ConcurrentSkipListMap<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        // guarded by writeLock
+        private long tail;
+
+        private long garbage;
+
+        Generation(final FileChannel channel, final List<MappedByteBuffer> segments, final long id,
+                final KeyIndex keys) {
+
+            this.channel = channel;
+            this.segments = segments;
+            this.id = id;
+            this.keys = keys;
+            this.size.set(keys.count);
+            this.tail = keys.tail;
+            this.garbage = keys.garbage;
+        }
+
+        ByteBuffer segment(final long offset) {
+            return segments.get((int) (offset / SEGMENT_SIZE)).duplicate();
+        }
+
+        String initialsAt(final long offset) {
+            ByteBuffer buffer = segment(offset);
+            buffer.position((int) (offset % SEGMENT_SIZE) + 5);
+            return readString(buffer);
+        }
+
+        /**
+         * Returns the position in the key index of the first initials following the given ones, or equal to them if
+         * inclusive.
+         */
+        int ceiling(final String initials, final boolean inclusive) {
+            int low = 0;
+            int high = keys.count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int comparison = initialsAt(keys.offset(middle)).compareTo(initials);
+                if (comparison < 0 || comparison == 0 && !inclusive) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        boolean indexed(final String initials) {
+            int position = ceiling(initials, true);
+            return position < keys.count && initialsAt(keys.offset(position)).equals(initials);
+        }
+
+        Long offset(final String initials) {
+            Long offset = later.get(initials);
+            if (offset != null) {
+                return offset == REMOVED ? null : offset;
+            }
+            int position = ceiling(initials, true);
+            return position < keys.count && initialsAt(keys.offset(position)).equals(initials)
+                    ? keys.offset(position)
+                    : null;
+        }
+
+        /**
+         * Iterates the initials and offsets of the live records in the given range of initials, merging the key
+         * index with the records written after it; null bounds are unbounded.
+         */
+        Iterator<Map.Entry<String, Long>> entries(
+                final String from, final boolean fromInclusive,
+                final String to, final boolean toInclusive,
+                final boolean ascending) {
+
+            if (from != null && to != null && from.compareTo(to) > 0) {
+                return Collections.emptyIterator();
+            }
+
+            final int low = from == null ? 0 : ceiling(from, fromInclusive);
+            final int high = to == null ? keys.count : ceiling(to, !toInclusive);
+
+            NavigableMap<String, Long> written = later;
+            if (from != null) {
+                written = written.tailMap(from, fromInclusive);
+            }
+            if (to != null) {
+                written = written.headMap(to, toInclusive);
+            }
+            final Iterator<Map.Entry<String, Long>> writes =
+                    (ascending ? written : written.descendingMap()).entrySet().iterator();
+
+            return new Iterator<Map.Entry<String, Long>>() {
+
+                private int position = ascending ? low : high - 1;
+
+                private String indexed = indexed();
+
+                private Map.Entry<String, Long> write = writes.hasNext() ? writes.next() : null;
+
+                private Map.Entry<String, Long> next = advance();
+
+                private String indexed() {
+                    return position >= low && position < high ? initialsAt(keys.offset(position)) : null;
+                }
+
+                private Map.Entry<String, Long> advance() {
+                    while (indexed != null || write != null) {
+                        int comparison = indexed == null ? 1
+                                : write == null ? -1
+                                : ascending ? indexed.compareTo(write.getKey()) : write.getKey().compareTo(indexed);
+                        if (comparison <= 0) {
+                            String initials = indexed;
+                            long offset = keys.offset(position);
+                            position += ascending ? 1 : -1;
+                            indexed = indexed();
+                            if (comparison < 0) {
+                                return new AbstractMap.SimpleImmutableEntry<>(initials, offset);
+                            }
+                        }
+                        // later writes replace the indexed record with the same initials
+                        Map.Entry<String, Long> entry = write;
+                        write = writes.hasNext() ? writes.next() : null;
+                        if (entry.getValue() != REMOVED) {
+                            return entry;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, Long> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<String, Long> result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        /**
+         * Counts the live records in the given range of initials; null bounds are unbounded.
+         */
+        int count(final String from, final boolean fromInclusive, final String to, final boolean toInclusive) {
+            if (from != null && to != null && from.compareTo(to) > 0) {
+                return 0;
+            }
+
+            int low = from == null ? 0 : ceiling(from, fromInclusive);
+            int high = to == null ? keys.count : ceiling(to, !toInclusive);
+            int count = Math.max(0, high - low);
+
+            NavigableMap<String, Long> written = later;
+            if (from != null) {
+                written = written.tailMap(from, fromInclusive);
+            }
+            if (to != null) {
+                written = written.headMap(to, toInclusive);
+            }
+            for (Map.Entry<String, Long> write : written.entrySet()) {
+                if (write.getValue() == REMOVED) {
+                    count--;
+                } else if (!indexed(write.getKey())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns a generation of the same file with the given key index, which must cover all of its records.
+         */
+        Generation withKeys(final KeyIndex keys) {
+            Generation next = new Generation(channel, segments, id, keys);
+            next.size.set(size.get());
+            next.tail = tail;
+            next.garbage = garbage;
+            return next;
+        }
+    }
+
+    private File file;
+
+    private long compactionInterval = 300;
+
+    private double compactionThreshold = 0.5;
+
+    private volatile Generation generation;
+
+    private final Lock writeLock = new ReentrantLock();
+
+    private ScheduledExecutorService compactor;
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return seconds between checks for compaction and checkpoints; 0 disables periodic compaction and checkpoints
+     */
+    public long getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    public void setCompactionInterval(final long compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    /**
+     * @return fraction of the file taken by overwritten or deleted records above which compaction runs
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public void setCompactionThreshold(final double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public void open() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("No file configured");
+        }
+        if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+
+        writeLock.lock();
+        try {
+            generation = load(file);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (compactionInterval > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-store-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    if (needsCompaction()) {
+                        compact();
+                    } else if (needsCheckpoint()) {
+                        checkpoint();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // an exception escaping the task would cancel all of its later runs
+                    LOG.log(Level.SEVERE, "Could not compact " + file, e);
+                }
+            }, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
+        }
+
+        writeLock.lock();
+        try {
+            if (generation != null) {
+                if (!generation.later.isEmpty()) {
+                    checkpoint();
+                }
+                for (MappedByteBuffer segment : generation.segments) {
+                    segment.force();
+                }
+                generation.channel.close();
+                generation = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private Generation current() {
+        Generation current = generation;
+        if (current == null) {
+            throw new IllegalStateException("Store is not open");
+        }
+        return current;
+    }
+
+    private static File keysFile(final File file) {
+        return new File(file.getPath() + ".keys");
+    }
+
+    private static Generation load(final File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long length = channel.size();
+        int count = (int) Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < count; i++) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+
+        ByteBuffer header = segments.get(0);
+        if (length == 0) {
+            long id = ThreadLocalRandom.current().nextLong();
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(8, id);
+            return new Generation(channel, segments, id, KeyIndex.EMPTY);
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a user store file: " + file);
+        }
+
+        long id = header.getLong(8);
+        KeyIndex keys = readKeys(keysFile(file), id);
+        Generation loaded = new Generation(channel, segments, id, keys == null ? KeyIndex.EMPTY : keys);
+
+        // replays the records following the key index
+        long offset = loaded.tail;
+        while (offset / SEGMENT_SIZE < loaded.segments.size()) {
+            int position = (int) (offset % SEGMENT_SIZE);
+            ByteBuffer segment = loaded.segment(offset);
+            int recordLength = position + 4 > SEGMENT_SIZE ? PADDING : segment.getInt(position);
+            if (recordLength == END) {
+                break;
+            }
+            if (recordLength == PADDING) {
+                offset = nextSegment(offset);
+                continue;
+            }
+
+            segment.position(position + 4);
+            byte type = segment.get();
+            String initials = readString(segment);
+            Long previous = loaded.offset(initials);
+            if (type == PUT) {
+                loaded.later.put(initials, offset);
+            } else if (loaded.indexed(initials)) {
+                loaded.later.put(initials, REMOVED);
+            } else {
+                loaded.later.remove(initials);
+            }
+            if (previous == null) {
+                if (type == PUT) {
+                    loaded.size.incrementAndGet();
+                }
+            } else {
+                loaded.garbage += recordSize(loaded, previous);
+                if (type == DELETE) {
+                    loaded.size.decrementAndGet();
+                }
+            }
+            if (type == DELETE) {
+                loaded.garbage += 4 + recordLength;
+            }
+
+            offset += 4 + recordLength;
+        }
+        loaded.tail = offset;
+
+        // keys replayed after an unclean shutdown are moved back off heap right away
+        return loaded.later.isEmpty() ? loaded : writeKeys(loaded, keysFile(file));
+    }
+
+    /**
+     * Maps the key index in the given file, or returns null if missing or not matching the file with the given id.
+     */
+    private static KeyIndex readKeys(final File keys, final long id) throws IOException {
+        if (!keys.isFile() || keys.length() < KEYS_HEADER_SIZE || keys.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(keys.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != KEYS_MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != id
+                || buffer.capacity() != KEYS_HEADER_SIZE + buffer.getInt(32) * 8L) {
+
+            return null;
+        }
+        return new KeyIndex(buffer, buffer.getInt(32), buffer.getLong(16), buffer.getLong(24));
+    }
+
+    /**
+     * Writes the key index of the given generation and returns the generation reading from it.
+     */
+    private static Generation writeKeys(final Generation generation, final File keys) throws IOException {
+        for (MappedByteBuffer segment : generation.segments) {
+            segment.force();
+        }
+
+        KeyWriter writer = new KeyWriter(keys);
+        for (Iterator<Map.Entry<String, Long>> entries = generation.entries(null, false, null, false, true);
+                entries.hasNext();) {
+
+            writer.add(entries.next().getValue());
+        }
+        writer.finish(generation.id, generation.tail, generation.garbage);
+
+        KeyIndex written = readKeys(keys, generation.id);
+        if (written == null) {
+            throw new IOException("Could not read back " + keys);
+        }
+        return generation.withKeys(written);
+    }
+
+    private static long nextSegment(final long offset) {
+        return (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+    }
+
+    private static int recordSize(final Generation generation, final long offset) {
+        return 4 + generation.segment(offset).getInt((int) (offset % SEGMENT_SIZE));
+    }
+
+    /**
+     * Appends the given record, length last so that a partially written record reads as the end of the log.
+     */
+    private static long append(final Generation generation, final byte[] record) throws IOException {
+        long offset = generation.tail;
+        int position = (int) (offset % SEGMENT_SIZE);
+        if (position + 4 + record.length + 4 > SEGMENT_SIZE) {
+            if (position + 4 <= SEGMENT_SIZE) {
+                generation.segment(offset).putInt(position, PADDING);
+            }
+            offset = nextSegment(offset);
+            position = 0;
+        }
+
+        int segment = (int) (offset / SEGMENT_SIZE);
+        if (segment == generation.segments.size()) {
+            generation.segments.add(generation.channel.map(
+                    FileChannel.MapMode.READ_WRITE, (long) segment * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+
+        ByteBuffer buffer = generation.segment(offset);
+        buffer.position(position + 4);
+        buffer.put(record);
+        buffer.putInt(position, record.length);
+
+        generation.tail = offset + 4 + record.length;
+        return offset;
+    }
+
+    private static byte[] encode(final byte type, final User user) {
+        byte[] initials = bytes(user.getInitials());
+        byte[] firstname = bytes(user.getFirstname());
+        byte[] surname = bytes(user.getSurname());
+
+        ByteBuffer buffer = ByteBuffer.allocate(1
+                + 2 + length(initials) + 2 + length(firstname) + 2 + length(surname) + 8);
+        buffer.put(type);
+        writeString(buffer, initials);
+        writeString(buffer, firstname);
+        writeString(buffer, surname);
+        buffer.putLong(user.getBirthdate() == null ? NULL_DATE : user.getBirthdate().getTime());
+        return buffer.array();
+    }
+
+    private static byte[] encodeDelete(final String initials) {
+        byte[] bytes = bytes(initials);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + length(bytes));
+        buffer.put(DELETE);
+        writeString(buffer, bytes);
+        return buffer.array();
+    }
+
+    private static User decode(final Generation generation, final long offset) {
+        ByteBuffer buffer = generation.segment(offset);
+        buffer.position((int) (offset % SEGMENT_SIZE) + 5);
+
+        User user = new User();
+        user.setInitials(readString(buffer));
+        user.setFirstname(readString(buffer));
+        user.setSurname(readString(buffer));
+        long birthdate = buffer.getLong();
+        user.setBirthdate(birthdate == NULL_DATE ? null : new Date(birthdate));
+        return user;
+    }
+
+    private static byte[] bytes(final String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Value too long: " + value);
+        }
+        return bytes;
+    }
+
+    private static int length(final byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void writeString(final ByteBuffer buffer, final byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public User get(final String initials) {
+        if (initials == null) {
+            return null;
+        }
+
+        Generation current = current();
+        Long offset = current.offset(initials);
+        return offset == null ? null : decode(current, offset);
+    }
+
+    @Override
+    public boolean contains(final String initials) {
+        return initials != null && current().offset(initials) != null;
+    }
+
+    @Override
+    public void put(final User user) {
+        if (user == null || user.getInitials() == null) {
+            throw new IllegalArgumentException("Users must have initials");
+        }
+
+        byte[] record = encode(PUT, user);
+        writeLock.lock();
+        try {
+            Generation current = current();
+            Long previous = current.offset(user.getInitials());
+            current.later.put(user.getInitials(), append(current, record));
+            if (previous == null) {
+                current.size.incrementAndGet();
+            } else {
+                current.garbage += recordSize(current, previous);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean add(final User user) {
+        if (user == null || user.getInitials() == null) {
+            throw new IllegalArgumentException("Users must have initials");
+        }
+
+        writeLock.lock();
+        try {
+            if (contains(user.getInitials())) {
+                return false;
+            }
+            put(user);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public User update(final String initials, final UnaryOperator<User> change)
+            throws AlreadyExistsException {
+        if (initials == null) {
+            return null;
+        }
+
+        writeLock.lock();
+        try {
+            User current = get(initials);
+            if (current == null) {
+                return null;
+            }
+
+            // decoded users are already private copies
+            User updated = change.apply(current);
+            if (updated.getInitials() == null) {
+                throw new IllegalArgumentException("Users must have initials");
+            }
+            if (!initials.equals(updated.getInitials())) {
+                if (contains(updated.getInitials())) {
+                    throw new AlreadyExistsException(updated.getInitials());
+                }
+                remove(initials);
+            }
+            put(updated);
+            return updated;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public User remove(final String initials) {
+        if (initials == null) {
+            return null;
+        }
+
+        writeLock.lock();
+        try {
+            Generation current = current();
+            Long previous = current.offset(initials);
+            if (previous == null) {
+                return null;
+            }
+
+            User removed = decode(current, previous);
+            long offset = append(current, encodeDelete(initials));
+            if (current.indexed(initials)) {
+                current.later.put(initials, REMOVED);
+            } else {
+                current.later.remove(initials);
+            }
+            current.size.decrementAndGet();
+            current.garbage += recordSize(current, previous) + recordSize(current, offset);
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return current().size.get();
+    }
+
+    @Override
+    public Collection<User> users() {
+        return view(current(), null, false, null, false, true);
+    }
+
+    @Override
+    public Collection<User> usersAfter(final String initials) {
+        return view(current(), initials, false, null, false, true);
+    }
+
+    @Override
+    public Collection<String> initials() {
+        final Generation current = current();
+        return new AbstractCollection<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                return keys(current.entries(null, false, null, false, true));
+            }
+
+            @Override
+            public int size() {
+                return current.size.get();
+            }
+        };
+    }
+
+    private static Iterator<String> keys(final Iterator<Map.Entry<String, Long>> entries) {
+        return new Iterator<String>() {
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return entries.next().getKey();
+            }
+        };
+    }
+
+    /**
+     * Returns the users in the given range of initials; null bounds are unbounded.
+     */
+    private static Collection<User> view(
+            final Generation generation,
+            final String from, final boolean fromInclusive,
+            final String to, final boolean toInclusive,
+            final boolean ascending) {
+
+        return new AbstractCollection<User>() {
+
+            @Override
+            public Iterator<User> iterator() {
+                final Iterator<Map.Entry<String, Long>> entries =
+                        generation.entries(from, fromInclusive, to, toInclusive, ascending);
+                return new Iterator<User>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public User next() {
+                        return decode(generation, entries.next().getValue());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                if (from == null && to == null) {
+                    return generation.size.get();
+                }
+                int size = 0;
+                for (Iterator<Map.Entry<String, Long>> entries =
+                        generation.entries(from, fromInclusive, to, toInclusive, ascending); entries.hasNext();) {
+
+                    entries.next();
+                    size++;
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * This store has no secondary indexes: unless ordered by initials, each call reads all users and puts the ones
+     * following the given position in a heap, so that a page costs O(n + p log n) whatever its position.
+     */
+    @Override
+    public Iterable<User> usersOrderedBy(
+            final UserAttribute attribute,
+            final boolean ascending,
+            final Comparable<?> afterValue,
+            final String afterInitials) {
+
+        Generation current = current();
+        if (attribute == UserAttribute.INITIALS) {
+            return ascending
+                    ? view(current, afterInitials, false, null, false, true)
+                    : view(current, null, false, afterInitials, false, false);
+        }
+
+        return UserOrder.sort(view(current, null, false, null, false, true),
+                attribute, ascending, afterValue, afterInitials);
+    }
+
+    @Override
+    public boolean isIndexed(final UserAttribute attribute) {
+        return attribute == UserAttribute.INITIALS;
+    }
+
+    @Override
+    public Iterable<String> initialsInRange(
+            final UserAttribute attribute,
+            final Comparable<?> from, final boolean fromInclusive,
+            final Comparable<?> to, final boolean toInclusive,
+            final String after) {
+
+        if (attribute != UserAttribute.INITIALS) {
+            throw new UnsupportedOperationException(attribute + " is not indexed");
+        }
+
+        final Generation current = current();
+        final boolean seek = after != null && (from == null || after.compareTo((String) from) >= 0);
+        return () -> keys(seek
+                ? current.entries(after, false, (String) to, toInclusive, true)
+                : current.entries((String) from, fromInclusive, (String) to, toInclusive, true));
+    }
+
+    /**
+     * Counts the indexed initials in the range by their positions in the key index, then adjusts the count by the
+     * keys written or deleted after it.
+     */
+    @Override
+    public int countInRange(
+            final UserAttribute attribute,
+            final Comparable<?> from, final boolean fromInclusive,
+            final Comparable<?> to, final boolean toInclusive) {
+
+        if (attribute != UserAttribute.INITIALS) {
+            throw new UnsupportedOperationException(attribute + " is not indexed");
+        }
+        return current().count((String) from, fromInclusive, (String) to, toInclusive);
+    }
+
+    private boolean needsCompaction() {
+        writeLock.lock();
+        try {
+            Generation current = generation;
+            return current != null && current.garbage > 0
+                    && current.garbage >= current.tail * compactionThreshold;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean needsCheckpoint() {
+        Generation current = generation;
+        return current != null && current.later.size() >= Math.max(CHECKPOINT_KEYS, current.keys.count / 10);
+    }
+
+    /**
+     * Rewrites the key index to cover all of the records, so that the keys written since the previous one no longer
+     * take heap nor need to be replayed at the next open.
+     */
+    public void checkpoint() throws IOException {
+        writeLock.lock();
+        try {
+            generation = writeKeys(current(), keysFile(file));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live records into a new file, in initials order along with its key index, which then replace the
+     * current ones; readers still holding the previous generation keep reading from its mapping.
+     */
+    public void compact() throws IOException {
+        writeLock.lock();
+        try {
+            Generation current = current();
+
+            File compacted = new File(file.getPath() + ".compact");
+            Files.deleteIfExists(compacted.toPath());
+            Generation next = load(compacted);
+            KeyWriter keys = new KeyWriter(keysFile(compacted));
+            for (Iterator<Map.Entry<String, Long>> entries = current.entries(null, false, null, false, true);
+                    entries.hasNext();) {
+
+                keys.add(append(next, encode(PUT, decode(current, entries.next().getValue()))));
+                next.size.incrementAndGet();
+            }
+            for (MappedByteBuffer segment : next.segments) {
+                segment.force();
+            }
+            keys.finish(next.id, next.tail, 0);
+
+            // a key index left over from the previous file does not match the id of the new one
+            Files.move(compacted.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(keysFile(compacted).toPath(), keysFile(file).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generation = next.withKeys(readKeys(keysFile(file), next.id));
+            current.channel.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
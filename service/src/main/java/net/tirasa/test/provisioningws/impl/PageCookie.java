@@ -0,0 +1,45 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Paged results cookies: the initials of the last user returned, so that the next page can seek straight after it.
+ * Sorted pages also carry its sort value, if any.
+ */
+public final class PageCookie {
+
+    private static final char SEPARATOR = '\u0000';
+
+    public static String encode(final String initials) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(initials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decode(final String cookie) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cookie), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid paged results cookie: " + cookie, e);
+        }
+    }
+
+    public static String encode(final String initials, final Comparable<?> value) {
+        return encode(value == null ? initials : initials + SEPARATOR + value);
+    }
+
+    /**
+     * Decodes a sorted page cookie into the initials and the sort value of the last user returned; the value is null
+     * if that user had none.
+     */
+    public static String[] decodePosition(final String cookie) {
+        String position = decode(cookie);
+        int separator = position.indexOf(SEPARATOR);
+        return separator < 0
+                ? new String[] { position, null }
+                : new String[] { position.substring(0, separator), position.substring(separator + 1) };
+    }
+
+    private PageCookie() {
+        // private constructor for static utility class
+    }
+}
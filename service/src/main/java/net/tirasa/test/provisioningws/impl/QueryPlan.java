@@ -0,0 +1,586 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.connid.bundles.soap.utilities.Operator;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * The Operand tree sent by the connector, compiled once per query into an index scan producing the candidate users
+ * and a residual predicate evaluated on each candidate.
+ *
+ * Non-negated EQ, GT, LT and STARTS leaves are answered by the store indexes, when the store has one on their
+ * attribute; AND is driven by its most selective indexed branch, with the other branches left as residual predicates,
+ * while OR is the union of its branches when all of them are indexed. Anything else (ENDS, CONTAINS, negations,
+ * attributes not indexed by the store) falls back to a scan of all users.
+ *
+ * Predicates on attributes unknown to this service always match: the connector framework re-applies the original
+ * filter on the returned objects, so a superset is fine while a missing user is not. For the same reason, a negated
+ * AND or OR comparing any such attribute always matches too, as negating a superset would give a subset.
+ */
+public final class QueryPlan {
+
+    private static final Predicate<User> ALL = user -> true;
+
+    private static final Predicate<User> NONE = user -> false;
+
+    /**
+     * Selectivity ranks used to choose the branch driving an AND: lower means fewer expected candidates.
+     */
+    private static final int PRIMARY_KEY = 0;
+
+    private static final int EQUALITY = 1;
+
+    private static final int PREFIX = 2;
+
+    private static final int RANGE = 3;
+
+    private static final int UNION = 4;
+
+    /**
+     * Sorted pages order the index candidates rather than walk the ordered store when the index selects at most one
+     * user in this many.
+     */
+    private static final int SORTED_SELECTIVITY = 64;
+
+    /**
+     * Compiles the given query for the given store, whose indexes decide which leaves can drive the plan.
+     */
+    public static QueryPlan compile(final Operand query, final UserStore store) {
+        return query == null ? new QueryPlan(null, ALL) : compileNode(query, store);
+    }
+
+    private static QueryPlan compileNode(final Operand query, final UserStore store) {
+        switch (query.getOp()) {
+            case AND:
+                return query.isNot() ? scan(compilePredicate(query)) : compileAnd(query.getOperands(), store);
+
+            case OR:
+                return query.isNot() ? scan(compilePredicate(query)) : compileOr(query.getOperands(), store);
+
+            default:
+                return compileLeaf(query, store);
+        }
+    }
+
+    private static QueryPlan compileAnd(final Collection<Operand> operands, final UserStore store) {
+        if (operands == null || operands.isEmpty()) {
+            return scan(ALL);
+        }
+
+        List<QueryPlan> plans = new ArrayList<>(operands.size());
+        QueryPlan driver = null;
+        for (Operand operand : operands) {
+            QueryPlan plan = compileNode(operand, store);
+            plans.add(plan);
+            if (plan.index != null && (driver == null || plan.index.rank < driver.index.rank)) {
+                driver = plan;
+            }
+        }
+        if (driver == null) {
+            return scan(and(plans));
+        }
+
+        // the driving branch only leaves its own residual, the others are checked in full on each candidate
+        List<Predicate<User>> residuals = new ArrayList<>(plans.size());
+        for (QueryPlan plan : plans) {
+            residuals.add(plan == driver ? plan.residual : plan.predicate);
+        }
+        return new QueryPlan(driver.index, and(residuals), and(plans));
+    }
+
+    private static QueryPlan compileOr(final Collection<Operand> operands, final UserStore store) {
+        if (operands == null || operands.isEmpty()) {
+            return scan(ALL);
+        }
+
+        List<QueryPlan> plans = new ArrayList<>(operands.size());
+        List<Index> indexes = new ArrayList<>(operands.size());
+        boolean exact = true;
+        for (Operand operand : operands) {
+            QueryPlan plan = compileNode(operand, store);
+            plans.add(plan);
+            indexes.add(plan.index);
+            exact &= plan.residual == ALL;
+        }
+
+        Predicate<User> predicate = or(plans);
+        if (indexes.contains(null)) {
+            return scan(predicate);
+        }
+        return new QueryPlan(union(indexes), exact ? ALL : predicate, predicate);
+    }
+
+    private static QueryPlan compileLeaf(final Operand query, final UserStore store) {
+        UserAttribute attribute = UserAttribute.fromName(query.getName());
+        if (attribute == null) {
+            return scan(ALL);
+        }
+
+        Predicate<User> predicate = compilePredicate(query);
+        if (query.isNot()) {
+            return scan(predicate);
+        }
+        if (query.getValue() == null) {
+            return new QueryPlan(new Index(PRIMARY_KEY) {
+
+                @Override
+                Iterable<String> initials(final UserStore store, final String after) {
+                    return Collections.emptyList();
+                }
+
+                @Override
+                int count(final UserStore store) {
+                    return 0;
+                }
+            }, ALL, NONE);
+        }
+
+        Index index = store.isIndexed(attribute) ? index(query.getOp(), attribute, query.getValue()) : null;
+        return index == null ? scan(predicate) : new QueryPlan(index, ALL, predicate);
+    }
+
+    private static Index index(final Operator op, final UserAttribute attribute, final String value) {
+        final Comparable<?> parsed = attribute.parse(value);
+        switch (op) {
+            case EQ:
+                return new Index(attribute == UserAttribute.INITIALS ? PRIMARY_KEY : EQUALITY) {
+
+                    @Override
+                    Iterable<String> initials(final UserStore store, final String after) {
+                        return store.initialsInRange(attribute, parsed, true, parsed, true, after);
+                    }
+
+                    @Override
+                    int count(final UserStore store) {
+                        return store.countInRange(attribute, parsed, true, parsed, true);
+                    }
+                };
+
+            case GT:
+                return range(attribute, parsed, null, RANGE);
+
+            case LT:
+                return range(attribute, null, parsed, RANGE);
+
+            case STARTS:
+                // birthdate prefixes are on the decimal string, which does not follow the numeric order
+                return attribute == UserAttribute.BIRTHDATE ? null : range(attribute, value, prefixEnd(value), PREFIX);
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the first string greater than all the strings starting with the given prefix, or null if there is none.
+     */
+    private static String prefixEnd(final String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        return end == 0 ? null : prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    private static Index range(
+            final UserAttribute attribute, final Comparable<?> from, final Comparable<?> to, final int rank) {
+
+        // GT is exclusive on its lower bound, STARTS is inclusive: both ranges exclude their upper bound
+        final boolean fromInclusive = rank == PREFIX;
+        return new Index(rank) {
+
+            @Override
+            Iterable<String> initials(final UserStore store, final String after) {
+                return store.initialsInRange(attribute, from, fromInclusive, to, false, after);
+            }
+
+            @Override
+            int count(final UserStore store) {
+                return store.countInRange(attribute, from, fromInclusive, to, false);
+            }
+        };
+    }
+
+    private static Index union(final List<Index> indexes) {
+        return new Index(UNION) {
+
+            @Override
+            Iterable<String> initials(final UserStore store, final String after) {
+                List<Iterable<String>> branches = new ArrayList<>(indexes.size());
+                for (Index index : indexes) {
+                    branches.add(index.initials(store, after));
+                }
+                return () -> InitialsMerge.of(branches);
+            }
+        };
+    }
+
+    private static Predicate<User> compilePredicate(final Operand query) {
+        if (query.isNot() && comparesUnknown(query)) {
+            return ALL;
+        }
+
+        final Predicate<User> result;
+        switch (query.getOp()) {
+            case AND:
+                result = query.getOperands() == null ? ALL : and(compilePredicates(query.getOperands()));
+                break;
+
+            case OR:
+                result = query.getOperands() == null || query.getOperands().isEmpty()
+                        ? ALL
+                        : or(compilePredicates(query.getOperands()));
+                break;
+
+            default:
+                UserAttribute attribute = UserAttribute.fromName(query.getName());
+                if (attribute == null) {
+                    return ALL;
+                }
+                result = compare(query.getOp(), attribute, query.getValue());
+        }
+
+        return query.isNot() ? result.negate() : result;
+    }
+
+    /**
+     * Tells whether the given query compares any attribute unknown to this service, so that its predicate may match
+     * more users than the query.
+     */
+    private static boolean comparesUnknown(final Operand query) {
+        if (query.getOp() != Operator.AND && query.getOp() != Operator.OR) {
+            return UserAttribute.fromName(query.getName()) == null;
+        }
+        if (query.getOperands() != null) {
+            for (Operand operand : query.getOperands()) {
+                if (comparesUnknown(operand)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<Predicate<User>> compilePredicates(final Collection<Operand> operands) {
+        List<Predicate<User>> predicates = new ArrayList<>(operands.size());
+        for (Operand operand : operands) {
+            predicates.add(compilePredicate(operand));
+        }
+        return predicates;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Predicate<User> compare(
+            final Operator op, final UserAttribute attribute, final String value) {
+
+        if (value == null) {
+            return NONE;
+        }
+        if (attribute == UserAttribute.BIRTHDATE && (op == Operator.EQ || op == Operator.GT || op == Operator.LT)) {
+            return compareBirthdate(op, (Long) attribute.parse(value));
+        }
+
+        switch (op) {
+            case EQ: {
+                final Comparable parsed = attribute.parse(value);
+                return user -> {
+                    Comparable actual = attribute.get(user);
+                    return actual != null && actual.compareTo(parsed) == 0;
+                };
+            }
+
+            case GT: {
+                final Comparable parsed = attribute.parse(value);
+                return user -> {
+                    Comparable actual = attribute.get(user);
+                    return actual != null && actual.compareTo(parsed) > 0;
+                };
+            }
+
+            case LT: {
+                final Comparable parsed = attribute.parse(value);
+                return user -> {
+                    Comparable actual = attribute.get(user);
+                    return actual != null && actual.compareTo(parsed) < 0;
+                };
+            }
+
+            case STARTS:
+                return user -> {
+                    Object actual = attribute.get(user);
+                    return actual != null && actual.toString().startsWith(value);
+                };
+
+            case ENDS:
+                return user -> {
+                    Object actual = attribute.get(user);
+                    return actual != null && actual.toString().endsWith(value);
+                };
+
+            case CONTAINS:
+                return user -> {
+                    Object actual = attribute.get(user);
+                    return actual != null && actual.toString().contains(value);
+                };
+
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Compares birthdates as primitive epoch millis, without boxing the value of each user.
+     */
+    private static Predicate<User> compareBirthdate(final Operator op, final long millis) {
+        switch (op) {
+            case EQ:
+                return user -> user.getBirthdate() != null && user.getBirthdate().getTime() == millis;
+
+            case GT:
+                return user -> user.getBirthdate() != null && user.getBirthdate().getTime() > millis;
+
+            default:
+                return user -> user.getBirthdate() != null && user.getBirthdate().getTime() < millis;
+        }
+    }
+
+    private static Predicate<User> and(final List<?> parts) {
+        final List<Predicate<User>> predicates = predicates(parts, ALL);
+        if (predicates.isEmpty()) {
+            return ALL;
+        }
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        return user -> {
+            for (Predicate<User> predicate : predicates) {
+                if (!predicate.test(user)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Predicate<User> or(final List<?> parts) {
+        final List<Predicate<User>> predicates = predicates(parts, NONE);
+        if (predicates.isEmpty()) {
+            return NONE;
+        }
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        return user -> {
+            for (Predicate<User> predicate : predicates) {
+                if (predicate.test(user)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Collects the predicates of the given plans or predicates, dropping the ones not affecting the result.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Predicate<User>> predicates(final List<?> parts, final Predicate<User> neutral) {
+        List<Predicate<User>> predicates = new ArrayList<>(parts.size());
+        for (Object part : parts) {
+            Predicate<User> predicate = part instanceof QueryPlan
+                    ? ((QueryPlan) part).predicate
+                    : (Predicate<User>) part;
+            if (predicate != neutral) {
+                predicates.add(predicate);
+            }
+        }
+        return predicates;
+    }
+
+    private static QueryPlan scan(final Predicate<User> predicate) {
+        return new QueryPlan(null, predicate);
+    }
+
+    /**
+     * Produces the initials of a superset of the matching users, or is null when all users must be scanned.
+     */
+    private abstract static class Index {
+
+        private final int rank;
+
+        Index(final int rank) {
+            this.rank = rank;
+        }
+
+        /**
+         * Returns the initials in order, following the given ones or from the first if null.
+         */
+        abstract Iterable<String> initials(UserStore store, String after);
+
+        /**
+         * Counts the initials; unions go through them, since their branches may overlap.
+         */
+        int count(final UserStore store) {
+            int count = 0;
+            for (Iterator<String> initials = initials(store, null).iterator(); initials.hasNext();) {
+                initials.next();
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private final Index index;
+
+    /**
+     * Checked on each user returned by the index: does not repeat what the index already guarantees.
+     */
+    private final Predicate<User> residual;
+
+    /**
+     * The whole query, used when this plan is a branch that cannot drive the enclosing AND or OR.
+     */
+    private final Predicate<User> predicate;
+
+    private QueryPlan(final Index index, final Predicate<User> predicate) {
+        this(index, predicate, predicate);
+    }
+
+    private QueryPlan(final Index index, final Predicate<User> residual, final Predicate<User> predicate) {
+        this.index = index;
+        this.residual = residual;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Returns the candidate users in initials order, starting after the given initials (or from the first user if
+     * null); each of them must still be checked with {@link #matches(User)}.
+     */
+    public Iterable<User> candidates(final UserStore store, final String after) {
+        if (index == null) {
+            return after == null ? store.users() : store.usersAfter(after);
+        }
+
+        // the index seeks to the given initials, so a page only goes through its own candidates
+        final Iterable<String> selected = index.initials(store, after);
+        return () -> new Iterator<User>() {
+
+            private final Iterator<String> keys = selected.iterator();
+
+            private User next = advance();
+
+            private User advance() {
+                // users removed after the index lookup are skipped
+                while (keys.hasNext()) {
+                    User user = store.get(keys.next());
+                    if (user != null) {
+                        return user;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public User next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                User result = next;
+                next = advance();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the candidate users as {@link UserStore#usersOrderedBy} does; each of them must still be checked with
+     * {@link #matches(User)}.
+     *
+     * Without an index, the ordered store is walked from the given position. With an index selecting a small part of
+     * the users, or when the store has no index on the sort attribute, the index candidates are ordered in a heap:
+     * each page then goes through all of them, but never through the whole store. Otherwise the ordered store is
+     * walked from the given position as well, skipping the users not selected by the index.
+     */
+    public Iterable<User> candidates(
+            final UserStore store,
+            final UserAttribute attribute,
+            final boolean ascending,
+            final Comparable<?> afterValue,
+            final String afterInitials) {
+
+        if (index == null) {
+            return store.usersOrderedBy(attribute, ascending, afterValue, afterInitials);
+        }
+
+        if (store.isIndexed(attribute) && (long) index.count(store) * SORTED_SELECTIVITY > store.size()) {
+            final Iterable<User> ordered = store.usersOrderedBy(attribute, ascending, afterValue, afterInitials);
+            return () -> new Iterator<User>() {
+
+                private final Iterator<User> users = ordered.iterator();
+
+                private User next = advance();
+
+                private User advance() {
+                    while (users.hasNext()) {
+                        User user = users.next();
+                        if (predicate.test(user)) {
+                            return user;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public User next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    User result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        return UserOrder.sort(candidates(store, null), attribute, ascending, afterValue, afterInitials);
+    }
+
+    /**
+     * Counts the matching users; when the index alone answers the query, the count comes from the store index
+     * without reading any user.
+     */
+    public int count(final UserStore store) {
+        if (index != null && residual == ALL) {
+            return index.count(store);
+        }
+
+        int count = 0;
+        for (User user : candidates(store, null)) {
+            if (matches(user)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean matches(final User user) {
+        return residual.test(user);
+    }
+}
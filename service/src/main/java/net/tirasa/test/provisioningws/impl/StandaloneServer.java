@@ -0,0 +1,80 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.io.Closeable;
+import java.util.Date;
+import net.tirasa.test.provisioningws.User;
+import net.tirasa.test.provisioningws.UserService;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.feature.FastInfosetFeature;
+import org.apache.cxf.jaxws.JaxWsServerFactoryBean;
+import org.apache.cxf.transport.common.gzip.GZIPFeature;
+
+/**
+ * Runs UserServiceImpl on CXF's embedded Jetty, filled with generated users, for load tests and benchmarks outside
+ * of a servlet container.
+ */
+public final class StandaloneServer {
+
+    private static final String[] FIRSTNAMES = {
+        "Mario", "Filippo", "Giulia", "Anna", "Luca", "Marco", "Sara", "Paolo", "Elena", "Giorgio" };
+
+    private static final String[] SURNAMES = {
+        "Rossi", "Bianchi", "Russo", "Ferrari", "Esposito", "Romano", "Colombo", "Ricci", "Marino", "Greco",
+        "Bruno", "Gallo", "Conti", "De Luca", "Costa" };
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    /**
+     * Publishes a new UserServiceImpl holding the given number of generated users.
+     *
+     * @return handle stopping the endpoint when closed
+     */
+    public static Closeable start(final String address, final int users) {
+        UserServiceImpl service = new UserServiceImpl();
+        populate(service.getStore(), users);
+
+        JaxWsServerFactoryBean factory = new JaxWsServerFactoryBean();
+        factory.setServiceClass(UserService.class);
+        factory.setServiceBean(service);
+        factory.setAddress(address);
+        // same as provisioningWSContext.xml
+        GZIPFeature gzip = new GZIPFeature();
+        gzip.setThreshold(1024);
+        factory.getFeatures().add(gzip);
+        factory.getFeatures().add(new FastInfosetFeature());
+        Server server = factory.create();
+
+        return () -> {
+            server.stop();
+            server.destroy();
+            factory.getBus().shutdown(true);
+        };
+    }
+
+    /**
+     * Adds users with initials U0000000, U0000001, ... and predictable names and birthdates.
+     */
+    public static void populate(final UserStore store, final int users) {
+        for (int i = 0; i < users; i++) {
+            User user = new User();
+            user.setInitials(String.format("U%07d", i));
+            user.setFirstname(FIRSTNAMES[i % FIRSTNAMES.length]);
+            user.setSurname(SURNAMES[(i / FIRSTNAMES.length) % SURNAMES.length]);
+            user.setBirthdate(new Date(i % 20000 * DAY));
+            store.put(user);
+        }
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        String address = args.length > 0 ? args[0] : "http://localhost:9000/services/users";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        start(address, users);
+        System.out.println("Serving " + users + " users at " + address);
+        Thread.currentThread().join();
+    }
+
+    private StandaloneServer() {
+        // private constructor for static utility class
+    }
+}
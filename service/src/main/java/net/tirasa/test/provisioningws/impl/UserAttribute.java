@@ -0,0 +1,76 @@
+package net.tirasa.test.provisioningws.impl;
+
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * Maps the attribute names used by the connector (including ConnId's __NAME__ and __UID__) onto User fields.
+ */
+public enum UserAttribute {
+
+    INITIALS,
+    FIRSTNAME,
+    SURNAME,
+    BIRTHDATE;
+
+    public static UserAttribute fromName(final String name) {
+        if (name == null) {
+            return null;
+        }
+
+        switch (name) {
+            case "__NAME__":
+            case "__UID__":
+            case "initials":
+                return INITIALS;
+
+            case "firstname":
+                return FIRSTNAME;
+
+            case "surname":
+                return SURNAME;
+
+            case "birthdate":
+                return BIRTHDATE;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads this attribute from the given user; birthdate is returned as epoch millis, as declared by the connector
+     * schema.
+     */
+    public Comparable<?> get(final User user) {
+        switch (this) {
+            case INITIALS:
+                return user.getInitials();
+
+            case FIRSTNAME:
+                return user.getFirstname();
+
+            case SURNAME:
+                return user.getSurname();
+
+            case BIRTHDATE:
+                return user.getBirthdate() == null ? null : user.getBirthdate().getTime();
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Converts a query value into the same type returned by {@link #get(User)}.
+     */
+    public Comparable<?> parse(final String value) {
+        if (this == BIRTHDATE) {
+            try {
+                return Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid birthdate value: " + value, e);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,50 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * Exposes a store collection as the List required by the service contract without copying it: JAXB only iterates
+ * over the returned list, so {@link #get(int)} is a linear scan meant as a fallback.
+ */
+public class UserListView extends AbstractList<User> {
+
+    private final Collection<User> users;
+
+    private final int size;
+
+    public UserListView(final Collection<User> users, final int size) {
+        this.users = users;
+        this.size = size;
+    }
+
+    @Override
+    public Iterator<User> iterator() {
+        return users.iterator();
+    }
+
+    @Override
+    public User get(final int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+
+        int i = 0;
+        for (User user : users) {
+            if (i++ == index) {
+                return user;
+            }
+        }
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+
+    /**
+     * @return the store size when the view was taken, as the underlying collection is weakly consistent
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+}
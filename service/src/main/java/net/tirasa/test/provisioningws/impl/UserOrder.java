@@ -0,0 +1,108 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * Orders users in memory as {@link UserStore#usersOrderedBy} does, for when no ordered index can be walked.
+ *
+ * The users following the position of a page are put in a heap, built in linear time, and taken out one at a time as
+ * they are read: a page of p users out of n costs O(n + p log n) rather than a full sort, but it still goes through
+ * all the users given, whatever the position.
+ */
+public final class UserOrder {
+
+    /**
+     * A user with its value, ordered as requested.
+     */
+    private static final class Position implements Comparable<Position> {
+
+        private final User user;
+
+        private final Comparable<?> value;
+
+        private final boolean ascending;
+
+        Position(final User user, final Comparable<?> value, final boolean ascending) {
+            this.user = user;
+            this.value = value;
+            this.ascending = ascending;
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public int compareTo(final Position other) {
+            int comparison = ((Comparable) value).compareTo(other.value);
+            if (comparison == 0) {
+                comparison = user.getInitials().compareTo(other.user.getInitials());
+            }
+            return ascending ? comparison : -comparison;
+        }
+    }
+
+    /**
+     * Orders the given users, which must come ordered by ascending initials, and returns the ones following the given
+     * position.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static Iterable<User> sort(
+            final Iterable<User> users,
+            final UserAttribute attribute,
+            final boolean ascending,
+            final Comparable<?> afterValue,
+            final String afterInitials) {
+
+        final List<Position> valued = new ArrayList<>();
+        final List<User> unvalued = new ArrayList<>();
+        for (User user : users) {
+            Comparable<?> value = attribute.get(user);
+            if (value == null) {
+                if (afterInitials == null || afterValue != null
+                        || (ascending ? 1 : -1) * user.getInitials().compareTo(afterInitials) > 0) {
+
+                    unvalued.add(user);
+                }
+            } else if (afterInitials == null) {
+                valued.add(new Position(user, value, ascending));
+            } else if (afterValue != null) {
+                int comparison = ((Comparable) value).compareTo(afterValue);
+                if (comparison == 0) {
+                    comparison = user.getInitials().compareTo(afterInitials);
+                }
+                if (ascending ? comparison > 0 : comparison < 0) {
+                    valued.add(new Position(user, value, ascending));
+                }
+            }
+        }
+
+        if (!ascending) {
+            Collections.reverse(unvalued);
+        }
+
+        return () -> new Iterator<User>() {
+
+            // built from a collection of comparable elements, the queue is heapified in linear time
+            private final PriorityQueue<Position> heap = new PriorityQueue<>(valued);
+
+            private final Iterator<User> rest = unvalued.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty() || rest.hasNext();
+            }
+
+            @Override
+            public User next() {
+                return heap.isEmpty() ? rest.next() : heap.poll().user;
+            }
+        };
+    }
+
+    private UserOrder() {
+        // private constructor for static utility class
+    }
+}
@@ -0,0 +1,59 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * The user fields to return to the client; fields left out are null, hence omitted from the SOAP payload. Initials
+ * are always returned.
+ */
+public final class UserProjection {
+
+    public static final UserProjection ALL = new UserProjection(EnumSet.allOf(UserAttribute.class));
+
+    private final Set<UserAttribute> attributes;
+
+    private UserProjection(final Set<UserAttribute> attributes) {
+        this.attributes = attributes;
+    }
+
+    /**
+     * Returns the projection on the given attribute names, or {@link #ALL} when none are given.
+     */
+    public static UserProjection of(final List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return ALL;
+        }
+
+        Set<UserAttribute> attributes = EnumSet.of(UserAttribute.INITIALS);
+        for (String name : names) {
+            UserAttribute attribute = UserAttribute.fromName(name);
+            if (attribute == null) {
+                throw new IllegalArgumentException("Unknown attribute: " + name);
+            }
+            attributes.add(attribute);
+        }
+        return attributes.size() == UserAttribute.values().length ? ALL : new UserProjection(attributes);
+    }
+
+    public User apply(final User user) {
+        if (this == ALL) {
+            return user;
+        }
+
+        User projected = new User();
+        projected.setInitials(user.getInitials());
+        if (attributes.contains(UserAttribute.FIRSTNAME)) {
+            projected.setFirstname(user.getFirstname());
+        }
+        if (attributes.contains(UserAttribute.SURNAME)) {
+            projected.setSurname(user.getSurname());
+        }
+        if (attributes.contains(UserAttribute.BIRTHDATE)) {
+            projected.setBirthdate(user.getBirthdate());
+        }
+        return projected;
+    }
+}
@@ -2,18 +2,43 @@ package net.tirasa.test.provisioningws.impl;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.test.provisioningws.AlreadyExistsException;
+import net.tirasa.test.provisioningws.AttributeChange;
+import net.tirasa.test.provisioningws.BatchItem;
+import net.tirasa.test.provisioningws.BatchResult;
+import net.tirasa.test.provisioningws.BatchStatus;
+import net.tirasa.test.provisioningws.ChangePage;
+import net.tirasa.test.provisioningws.ChangeType;
 import net.tirasa.test.provisioningws.NotFoundException;
 import net.tirasa.test.provisioningws.User;
+import net.tirasa.test.provisioningws.UserPage;
 import net.tirasa.test.provisioningws.UserService;
 
 public class UserServiceImpl implements UserService {
 
-    private static final Map<String, User> USERS = new HashMap<>();
+    private UserStore store;
+
+    private ChangeLog changeLog = new ChangeLog();
+
+    /**
+     * Tells apart versions of different service instances, whose change tokens start over.
+     */
+    private volatile String instance = UUID.randomUUID().toString();
+
+    /**
+     * Serializes writes, so that changes are logged in the same order as they are applied.
+     */
+    private final Lock writeLock = new ReentrantLock();
+
+    public UserServiceImpl() {
+        store = new InMemoryUserStore();
 
-    static {
         Calendar calendar = Calendar.getInstance();
         calendar.clear();
         calendar.set(Calendar.YEAR, 1977);
@@ -24,7 +49,7 @@ public class UserServiceImpl implements UserService {
         mr.setFirstname("Mario");
         mr.setSurname("Rossi");
         mr.setBirthdate(calendar.getTime());
-        USERS.put(mr.getInitials(), mr);
+        store.put(mr);
 
         calendar = Calendar.getInstance();
         calendar.clear();
@@ -36,20 +61,339 @@ public class UserServiceImpl implements UserService {
         fb.setFirstname("Filippo");
         fb.setSurname("Bianchi");
         fb.setBirthdate(calendar.getTime());
-        USERS.put(fb.getInitials(), fb);
+        store.put(fb);
+    }
+
+    public UserStore getStore() {
+        return store;
+    }
+
+    public void setStore(final UserStore store) {
+        this.store = store;
+        this.instance = UUID.randomUUID().toString();
+    }
+
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    public void setChangeLog(final ChangeLog changeLog) {
+        this.changeLog = changeLog;
+        this.instance = UUID.randomUUID().toString();
     }
 
     @Override
     public List<User> getUsers() {
-        return new ArrayList<>(USERS.values());
+        return new UserListView(store.users(), store.size());
     }
 
     @Override
     public User getUser(final String initials) throws NotFoundException {
-        if (USERS.containsKey(initials)) {
-            return USERS.get(initials);
+        User user = store.get(initials);
+        if (user == null) {
+            throw new NotFoundException(initials);
+        }
+        return user;
+    }
+
+    @Override
+    public List<User> searchUsers(final Operand query, final List<String> attributes) {
+        UserProjection projection = UserProjection.of(attributes);
+        if (query == null && projection == UserProjection.ALL) {
+            return getUsers();
         }
-        throw new NotFoundException(initials);
+
+        QueryPlan plan = QueryPlan.compile(query, store);
+        List<User> result = new ArrayList<>();
+        for (User user : plan.candidates(store, null)) {
+            if (plan.matches(user)) {
+                result.add(projection.apply(user));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public UserPage getUsersPage(
+            final Operand query, final int pageSize, final String cookie, final List<String> attributes) {
+
+        return getPartitionPage(query, null, null, pageSize, cookie, attributes);
+    }
+
+    @Override
+    public String getUsersVersion() {
+        return instance + '.' + changeLog.getLatestToken();
+    }
+
+    @Override
+    public List<String> getPartitionBounds(final int partitions) {
+        List<String> bounds = new ArrayList<>();
+
+        int size = store.size();
+        int ranges = Math.min(partitions, size);
+        if (ranges > 1) {
+            // the range k ends with the user at position k * size / ranges - 1
+            int range = 1;
+            long end = (long) size / ranges;
+            long position = 0;
+            for (String initials : store.initials()) {
+                if (++position == end) {
+                    bounds.add(initials);
+                    if (++range == ranges) {
+                        break;
+                    }
+                    end = (long) range * size / ranges;
+                }
+            }
+        }
+
+        return bounds;
+    }
+
+    @Override
+    public UserPage getPartitionPage(
+            final Operand query,
+            final String from,
+            final String to,
+            final int pageSize,
+            final String cookie,
+            final List<String> attributes) {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        UserProjection projection = UserProjection.of(attributes);
+
+        QueryPlan plan = QueryPlan.compile(query, store);
+        String after = cookie == null ? from : PageCookie.decode(cookie);
+
+        UserPage page = new UserPage();
+        User last = null;
+        for (User user : plan.candidates(store, after)) {
+            if (to != null && user.getInitials().compareTo(to) > 0) {
+                break;
+            }
+            if (plan.matches(user)) {
+                if (page.getUsers().size() == pageSize) {
+                    page.setCookie(PageCookie.encode(last.getInitials()));
+                    break;
+                }
+                page.getUsers().add(projection.apply(user));
+                last = user;
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public UserPage getSortedPage(
+            final Operand query,
+            final String sortBy,
+            final boolean descending,
+            final int pageSize,
+            final String cookie,
+            final List<String> attributes) {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        UserAttribute attribute = UserAttribute.fromName(sortBy);
+        if (attribute == null) {
+            throw new IllegalArgumentException("Unknown sort attribute: " + sortBy);
+        }
+        UserProjection projection = UserProjection.of(attributes);
+        QueryPlan plan = QueryPlan.compile(query, store);
+
+        String afterInitials = null;
+        Comparable<?> afterValue = null;
+        if (cookie != null) {
+            String[] position = PageCookie.decodePosition(cookie);
+            afterInitials = position[0];
+            afterValue = position[1] == null ? null : attribute.parse(position[1]);
+        }
+
+        UserPage page = new UserPage();
+        User last = null;
+        for (User user : plan.candidates(store, attribute, !descending, afterValue, afterInitials)) {
+            if (plan.matches(user)) {
+                if (page.getUsers().size() == pageSize) {
+                    page.setCookie(PageCookie.encode(last.getInitials(), attribute.get(last)));
+                    break;
+                }
+                page.getUsers().add(projection.apply(user));
+                last = user;
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public int countUsers(final Operand query) {
+        return query == null ? store.size() : QueryPlan.compile(query, store).count(store);
+    }
+
+    @Override
+    public boolean userExists(final String initials) {
+        return store.contains(initials);
+    }
+
+    @Override
+    public User createUser(final User user) throws AlreadyExistsException {
+        if (user == null || user.getInitials() == null || user.getInitials().isEmpty()) {
+            throw new IllegalArgumentException("Users must have initials");
+        }
+
+        writeLock.lock();
+        try {
+            if (!store.add(user)) {
+                throw new AlreadyExistsException(user.getInitials());
+            }
+
+            User created = store.get(user.getInitials());
+            changeLog.append(ChangeType.CREATE, created.getInitials(), created);
+            return created;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public User updateUser(final String initials, final List<AttributeChange> changes)
+            throws NotFoundException, AlreadyExistsException {
+
+        if (changes != null) {
+            for (AttributeChange change : changes) {
+                UserAttribute attribute = UserAttribute.fromName(change.getName());
+                if (attribute == null) {
+                    throw new IllegalArgumentException("Unknown attribute: " + change.getName());
+                }
+                if (attribute == UserAttribute.INITIALS && change.getValue() == null) {
+                    throw new IllegalArgumentException("Users must have initials");
+                }
+            }
+        }
+
+        writeLock.lock();
+        try {
+            User updated = store.update(initials, user -> {
+                if (changes != null) {
+                    for (AttributeChange change : changes) {
+                        apply(user, UserAttribute.fromName(change.getName()), change.getValue());
+                    }
+                }
+                return user;
+            });
+
+            if (updated == null) {
+                throw new NotFoundException(initials);
+            }
+
+            if (initials.equals(updated.getInitials())) {
+                changeLog.append(ChangeType.UPDATE, initials, updated);
+            } else {
+                changeLog.append(ChangeType.DELETE, initials, null);
+                changeLog.append(ChangeType.CREATE, updated.getInitials(), updated);
+            }
+            return updated;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void apply(final User user, final UserAttribute attribute, final String value) {
+        switch (attribute) {
+            case INITIALS:
+                user.setInitials(value);
+                break;
+
+            case FIRSTNAME:
+                user.setFirstname(value);
+                break;
+
+            case SURNAME:
+                user.setSurname(value);
+                break;
+
+            case BIRTHDATE:
+                user.setBirthdate(value == null ? null : new Date((Long) attribute.parse(value)));
+                break;
+
+            default:
+        }
+    }
+
+    @Override
+    public void deleteUser(final String initials) throws NotFoundException {
+        writeLock.lock();
+        try {
+            if (store.remove(initials) == null) {
+                throw new NotFoundException(initials);
+            }
+            changeLog.append(ChangeType.DELETE, initials, null);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<BatchResult> batch(final List<BatchItem> items) {
+        if (items == null) {
+            return new ArrayList<>();
+        }
+
+        List<BatchResult> results = new ArrayList<>(items.size());
+        for (BatchItem item : items) {
+            BatchResult result = new BatchResult();
+            result.setInitials(item.getInitials());
+            try {
+                if (item.getOperation() == null) {
+                    throw new IllegalArgumentException("Missing operation");
+                }
+
+                switch (item.getOperation()) {
+                    case CREATE:
+                        result.setInitials(createUser(item.getUser()).getInitials());
+                        break;
+
+                    case UPDATE:
+                        result.setInitials(updateUser(item.getInitials(), item.getChanges()).getInitials());
+                        break;
+
+                    case DELETE:
+                        deleteUser(item.getInitials());
+                        break;
+
+                    default:
+                }
+                result.setStatus(BatchStatus.SUCCESS);
+            } catch (NotFoundException e) {
+                result.setStatus(BatchStatus.NOT_FOUND);
+                result.setMessage(e.getMessage());
+            } catch (AlreadyExistsException e) {
+                result.setStatus(BatchStatus.ALREADY_EXISTS);
+                result.setMessage(e.getMessage());
+            } catch (RuntimeException e) {
+                result.setStatus(BatchStatus.FAILURE);
+                result.setMessage(e.getMessage());
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    @Override
+    public ChangePage getChangesSince(final String epoch, final long token, final int max) {
+        return changeLog.since(epoch, token, max);
+    }
+
+    @Override
+    public long getLatestChangeToken() {
+        return changeLog.getLatestToken();
+    }
+
+    @Override
+    public String getChangeEpoch() {
+        return changeLog.getEpoch();
     }
 
 }
@@ -0,0 +1,105 @@
+package net.tirasa.test.provisioningws.impl;
+
+import java.util.Collection;
+import java.util.function.UnaryOperator;
+import net.tirasa.test.provisioningws.AlreadyExistsException;
+import net.tirasa.test.provisioningws.User;
+
+/**
+ * Storage for users, keyed by initials and possibly indexed on the other attributes, as told by
+ * {@link #isIndexed(UserAttribute)}.
+ *
+ * Implementations must allow concurrent reads while writing; users returned are shared with the store and must not
+ * be modified.
+ */
+public interface UserStore {
+
+    User get(String initials);
+
+    boolean contains(String initials);
+
+    /**
+     * Adds the given user, replacing any user with the same initials.
+     */
+    void put(User user);
+
+    /**
+     * Adds the given user, unless a user with the same initials exists.
+     *
+     * @return whether the user was added
+     */
+    boolean add(User user);
+
+    /**
+     * Atomically replaces the user with the given initials by the result of the given change, which receives a copy
+     * of the current user and may also change its initials.
+     *
+     * @return the updated user, or null if no user with the given initials was found
+     * @throws AlreadyExistsException if the initials are changed to the ones of another user
+     */
+    User update(String initials, UnaryOperator<User> change) throws AlreadyExistsException;
+
+    /**
+     * @return the removed user, or null if no user with the given initials was found
+     */
+    User remove(String initials);
+
+    int size();
+
+    /**
+     * @return all users ordered by initials; the collection is a live, weakly consistent view, not a copy
+     */
+    Collection<User> users();
+
+    /**
+     * @return users whose initials follow the given ones, in the same fashion as {@link #users()}
+     */
+    Collection<User> usersAfter(String initials);
+
+    /**
+     * @return initials of all users, ordered and weakly consistent like {@link #users()}
+     */
+    Collection<String> initials();
+
+    /**
+     * Returns the users ordered by the given attribute and then by initials, both descending if not ascending; users
+     * without the attribute come last, by initials.
+     *
+     * The users returned follow the position of the last user of a previous call, given by its attribute value and
+     * initials, or all users if afterInitials is null; the result is weakly consistent like {@link #users()}.
+     */
+    Iterable<User> usersOrderedBy(
+            UserAttribute attribute, boolean ascending, Comparable<?> afterValue, String afterInitials);
+
+    /**
+     * Tells whether lookups on the given attribute are answered by an index; initials always are.
+     */
+    boolean isIndexed(UserAttribute attribute);
+
+    /**
+     * Returns the initials of the users whose attribute value falls in the given range, read from the attribute index
+     * without reading any user; null bounds are unbounded, and an equality is a range with the same inclusive bounds.
+     *
+     * The initials are ordered and follow the given ones, or start from the first if null, so that a page can resume
+     * from the last initials of the previous one without going through the range again; the result is weakly
+     * consistent like {@link #users()}.
+     *
+     * @throws UnsupportedOperationException if the attribute is not indexed
+     */
+    Iterable<String> initialsInRange(
+            UserAttribute attribute,
+            Comparable<?> from, boolean fromInclusive,
+            Comparable<?> to, boolean toInclusive,
+            String after);
+
+    /**
+     * Counts the users whose attribute value falls in the given range, as {@link #initialsInRange} would return them
+     * but without going through the initials where the index keeps counts.
+     *
+     * @throws UnsupportedOperationException if the attribute is not indexed
+     */
+    int countInRange(
+            UserAttribute attribute,
+            Comparable<?> from, boolean fromInclusive,
+            Comparable<?> to, boolean toInclusive);
+}
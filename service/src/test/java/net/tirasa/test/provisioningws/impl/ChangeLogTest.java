@@ -0,0 +1,106 @@
+package net.tirasa.test.provisioningws.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.tirasa.test.provisioningws.Change;
+import net.tirasa.test.provisioningws.ChangePage;
+import net.tirasa.test.provisioningws.ChangeType;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeLogTest {
+
+    private ChangeLog log;
+
+    private static List<Long> tokens(final ChangePage page) {
+        List<Long> tokens = new ArrayList<>();
+        for (Change change : page.getChanges()) {
+            tokens.add(change.getToken());
+        }
+        return tokens;
+    }
+
+    private void append(final int count) {
+        for (int i = 0; i < count; i++) {
+            log.append(ChangeType.DELETE, "u" + i, null);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        log = new ChangeLog();
+    }
+
+    @Test
+    public void returnsChangesFollowingToken() {
+        append(5);
+
+        ChangePage page = log.since(log.getEpoch(), 2, 10);
+        assertEquals(Arrays.asList(3L, 4L, 5L), tokens(page));
+        assertFalse(page.isTruncated());
+        assertEquals(log.getEpoch(), page.getEpoch());
+        assertEquals(5, page.getLatestToken());
+
+        assertEquals(Arrays.asList(3L, 4L), tokens(log.since(log.getEpoch(), 2, 2)));
+        assertEquals(Arrays.asList(), tokens(log.since(log.getEpoch(), 5, 10)));
+    }
+
+    @Test
+    public void startsFromFirstChange() {
+        ChangePage page = log.since(null, 0, 10);
+        assertEquals(Arrays.asList(), tokens(page));
+        assertFalse(page.isTruncated());
+        assertEquals(0, page.getLatestToken());
+
+        append(3);
+        page = log.since(null, 0, 10);
+        assertEquals(Arrays.asList(1L, 2L, 3L), tokens(page));
+        assertFalse(page.isTruncated());
+    }
+
+    @Test
+    public void truncatedOnceChangesAreDropped() {
+        log.setCapacity(3);
+        append(5);
+
+        // changes 1 and 2 are gone
+        ChangePage page = log.since(log.getEpoch(), 1, 10);
+        assertTrue(page.isTruncated());
+        assertEquals(Arrays.asList(3L, 4L, 5L), tokens(page));
+        assertTrue(log.since(log.getEpoch(), 0, 10).isTruncated());
+
+        page = log.since(log.getEpoch(), 2, 10);
+        assertFalse(page.isTruncated());
+        assertEquals(Arrays.asList(3L, 4L, 5L), tokens(page));
+        assertFalse(log.since(log.getEpoch(), 5, 10).isTruncated());
+    }
+
+    @Test
+    public void truncatedOnTokenAhead() {
+        append(5);
+        assertTrue(log.since(log.getEpoch(), 6, 10).isTruncated());
+    }
+
+    @Test
+    public void truncatedOnTokenOfAnotherEpoch() {
+        append(5);
+
+        ChangeLog previous = new ChangeLog();
+        assertTrue(log.since(previous.getEpoch(), 2, 10).isTruncated());
+        assertTrue(log.since(null, 2, 10).isTruncated());
+        // whatever its sequence number, even the latest one of the current log
+        assertTrue(log.since(previous.getEpoch(), 5, 10).isTruncated());
+
+        assertFalse(log.since(previous.getEpoch(), 0, 10).isTruncated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMax() {
+        log.since(log.getEpoch(), 0, 0);
+    }
+}
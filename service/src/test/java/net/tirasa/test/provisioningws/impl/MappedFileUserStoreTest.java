@@ -0,0 +1,192 @@
+package net.tirasa.test.provisioningws.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import net.tirasa.test.provisioningws.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileUserStoreTest {
+
+    private Path directory;
+
+    private final List<MappedFileUserStore> stores = new ArrayList<>();
+
+    private static User user(final String initials, final String surname, final Long birthdate) {
+        User user = new User();
+        user.setInitials(initials);
+        user.setFirstname("first " + initials);
+        user.setSurname(surname);
+        user.setBirthdate(birthdate == null ? null : new Date(birthdate));
+        return user;
+    }
+
+    private static String describe(final User user) {
+        return user.getFirstname() + '|' + user.getSurname() + '|'
+                + (user.getBirthdate() == null ? null : user.getBirthdate().getTime());
+    }
+
+    private static Map<String, String> contents(final UserStore store) {
+        Map<String, String> contents = new TreeMap<>();
+        for (User user : store.users()) {
+            contents.put(user.getInitials(), describe(user));
+        }
+        assertEquals(contents.size(), store.size());
+        assertEquals(contents.size(), store.countInRange(UserAttribute.INITIALS, null, false, null, false));
+        return contents;
+    }
+
+    private static File keys(final File file) {
+        return new File(file.getPath() + ".keys");
+    }
+
+    private MappedFileUserStore open(final File file) throws IOException {
+        MappedFileUserStore store = new MappedFileUserStore();
+        store.setFile(file);
+        store.setCompactionInterval(0);
+        store.open();
+        stores.add(store);
+        return store;
+    }
+
+    private void close(final MappedFileUserStore store) throws IOException {
+        store.close();
+        stores.remove(store);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("users");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (MappedFileUserStore store : stores) {
+            store.close();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void replaysRecordsWrittenAfterKeyIndex() throws IOException {
+        File file = new File(directory.toFile(), "users.db");
+        MappedFileUserStore store = open(file);
+        store.put(user("mr", "rossi", 0L));
+        store.put(user("gv", "verdi", null));
+        store.put(user("xx", null, -86400000L));
+        store.checkpoint();
+
+        store.put(user("mr", "russo", 0L));
+        store.remove("gv");
+        store.put(user("ab", "bianchi", null));
+        store.remove("ab");
+        store.put(user("cd", "neri", 1L));
+        Map<String, String> expected = contents(store);
+
+        // copies the files while the store is still open, as they are left by a crash
+        File crashed = new File(directory.toFile(), "crashed.db");
+        Files.copy(file.toPath(), crashed.toPath());
+        Files.copy(keys(file).toPath(), keys(crashed).toPath());
+
+        MappedFileUserStore recovered = open(crashed);
+        assertEquals(expected, contents(recovered));
+        assertEquals("first mr|russo|0", describe(recovered.get("mr")));
+        assertEquals(null, recovered.get("gv"));
+
+        // the replayed records were moved to the key index, which must hold up on its own
+        close(recovered);
+        assertEquals(expected, contents(open(crashed)));
+    }
+
+    @Test
+    public void tornKeyIndexHeaderIsIgnored() throws IOException {
+        File file = new File(directory.toFile(), "users.db");
+        MappedFileUserStore store = open(file);
+        for (int i = 0; i < 100; i++) {
+            store.put(user(String.format("u%03d", i), "surname" + i % 7, (long) i));
+        }
+        store.remove("u050");
+        Map<String, String> expected = contents(store);
+        close(store);
+
+        // the header is written last: a key index whose write was interrupted has none
+        try (FileChannel channel = FileChannel.open(keys(file).toPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(40), 0);
+        }
+        store = open(file);
+        assertEquals(expected, contents(store));
+        close(store);
+
+        // nor is a key index shorter than its header says
+        try (FileChannel channel = FileChannel.open(keys(file).toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 8);
+        }
+        assertEquals(expected, contents(open(file)));
+    }
+
+    @Test
+    public void keyIndexOfAnotherFileIsIgnored() throws IOException {
+        File first = new File(directory.toFile(), "first.db");
+        MappedFileUserStore store = open(first);
+        store.put(user("aa", "rossi", null));
+        store.put(user("bb", "verdi", null));
+        store.put(user("cc", "bianchi", null));
+        close(store);
+
+        File second = new File(directory.toFile(), "second.db");
+        store = open(second);
+        store.put(user("zz", "neri", 5L));
+        Map<String, String> expected = contents(store);
+        close(store);
+
+        Files.copy(keys(first).toPath(), keys(second).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(expected, contents(open(second)));
+    }
+
+    @Test
+    public void compactionKeepsLiveUsers() throws IOException {
+        File file = new File(directory.toFile(), "users.db");
+        MappedFileUserStore store = open(file);
+        for (int i = 0; i < 1000; i++) {
+            store.put(user(String.format("u%04d", i), "surname", (long) i));
+        }
+        store.checkpoint();
+        for (int i = 0; i < 1000; i += 2) {
+            store.put(user(String.format("u%04d", i), "changed", null));
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            store.remove(String.format("u%04d", i));
+        }
+        Map<String, String> expected = contents(store);
+
+        store.compact();
+        assertEquals(expected, contents(store));
+        assertEquals(3, store.countInRange(UserAttribute.INITIALS, "u0100", true, "u0104", false));
+
+        // writes after compaction go to the new file, whose key index must match it across a reopen
+        store.put(user("new", "user", null));
+        store.remove("u0001");
+        expected = contents(store);
+        close(store);
+
+        assertEquals(expected, contents(open(file)));
+    }
+}
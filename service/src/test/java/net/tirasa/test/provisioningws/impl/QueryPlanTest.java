@@ -0,0 +1,90 @@
+package net.tirasa.test.provisioningws.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.connid.bundles.soap.utilities.Operator;
+import net.tirasa.test.provisioningws.User;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryPlanTest {
+
+    private InMemoryUserStore store;
+
+    private static User user(final String initials, final String firstname, final String surname) {
+        User user = new User();
+        user.setInitials(initials);
+        user.setFirstname(firstname);
+        user.setSurname(surname);
+        return user;
+    }
+
+    private static Operand node(final Operator op, final boolean not, final Operand... operands) {
+        return new Operand(op, new LinkedHashSet<>(Arrays.asList(operands)), not);
+    }
+
+    private List<String> search(final Operand query) {
+        QueryPlan plan = QueryPlan.compile(query, store);
+        List<String> result = new ArrayList<>();
+        for (User user : plan.candidates(store, null)) {
+            if (plan.matches(user)) {
+                result.add(user.getInitials());
+            }
+        }
+        return result;
+    }
+
+    @Before
+    public void setUp() {
+        store = new InMemoryUserStore();
+        store.put(user("mr", "mario", "rossi"));
+        store.put(user("gv", "giuseppe", "verdi"));
+        store.put(user("xx", null, null));
+    }
+
+    @Test
+    public void unknownAttributeMatchesAll() {
+        assertEquals(Arrays.asList("gv", "mr", "xx"), search(new Operand(Operator.EQ, "email", "a@b.c")));
+        assertEquals(Arrays.asList("gv", "mr", "xx"), search(new Operand(Operator.EQ, "email", "a@b.c", true)));
+
+        // the unknown predicate is dropped from a plain AND, leaving a superset
+        assertEquals(Arrays.asList("mr"), search(node(Operator.AND, false,
+                new Operand(Operator.EQ, "email", "a@b.c"),
+                new Operand(Operator.EQ, "surname", "rossi"))));
+    }
+
+    @Test
+    public void negatedNodeWithUnknownAttributeMatchesAll() {
+        // NOT (email = x AND surname = rossi) may match mr too, depending on the email the service does not know
+        assertEquals(Arrays.asList("gv", "mr", "xx"), search(node(Operator.AND, true,
+                new Operand(Operator.EQ, "email", "a@b.c"),
+                new Operand(Operator.EQ, "surname", "rossi"))));
+        assertEquals(Arrays.asList("gv", "mr", "xx"), search(node(Operator.OR, true,
+                new Operand(Operator.EQ, "email", "a@b.c"),
+                new Operand(Operator.EQ, "surname", "rossi"))));
+
+        // also when the unknown attribute is nested deeper
+        assertEquals(Arrays.asList("gv", "mr", "xx"), search(node(Operator.AND, false,
+                node(Operator.OR, true,
+                        node(Operator.AND, false,
+                                new Operand(Operator.EQ, "email", "a@b.c"),
+                                new Operand(Operator.EQ, "firstname", "mario")),
+                        new Operand(Operator.EQ, "surname", "verdi")),
+                new Operand(Operator.STARTS, "__NAME__", ""))));
+    }
+
+    @Test
+    public void negatedNodeOnKnownAttributes() {
+        assertEquals(Arrays.asList("gv", "xx"), search(node(Operator.AND, true,
+                new Operand(Operator.EQ, "firstname", "mario"),
+                new Operand(Operator.EQ, "surname", "rossi"))));
+        assertEquals(Arrays.asList("xx"), search(node(Operator.OR, true,
+                new Operand(Operator.EQ, "surname", "verdi"),
+                new Operand(Operator.EQ, "surname", "rossi"))));
+    }
+}
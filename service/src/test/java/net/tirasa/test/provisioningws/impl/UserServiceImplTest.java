@@ -0,0 +1,202 @@
+package net.tirasa.test.provisioningws.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import net.tirasa.connid.bundles.soap.utilities.Operand;
+import net.tirasa.connid.bundles.soap.utilities.Operator;
+import net.tirasa.test.provisioningws.User;
+import net.tirasa.test.provisioningws.UserPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserServiceImplTest {
+
+    private static final int USERS = 500;
+
+    private static final Comparator<User> BY_INITIALS = Comparator.comparing(User::getInitials);
+
+    private InMemoryUserStore store;
+
+    private UserServiceImpl service;
+
+    private Thread writer;
+
+    private volatile boolean writing;
+
+    private final AtomicInteger writes = new AtomicInteger();
+
+    private static User user(final String initials, final String surname) {
+        User user = new User();
+        user.setInitials(initials);
+        user.setSurname(surname);
+        return user;
+    }
+
+    private static String surname(final int i) {
+        return i % 10 == 0 ? null : "n" + i % 37;
+    }
+
+    /**
+     * Order of sorted pages: by surname then initials, except for users without a surname, which come last in both
+     * directions.
+     */
+    private static Comparator<User> bySurname(final boolean descending) {
+        return (left, right) -> {
+            if (left.getSurname() == null && right.getSurname() != null) {
+                return 1;
+            }
+            if (left.getSurname() != null && right.getSurname() == null) {
+                return -1;
+            }
+            int comparison = left.getSurname() == null ? 0 : left.getSurname().compareTo(right.getSurname());
+            if (comparison == 0) {
+                comparison = left.getInitials().compareTo(right.getInitials());
+            }
+            return descending ? -comparison : comparison;
+        };
+    }
+
+    /**
+     * Keeps adding and removing users whose initials and surnames fall between the ones of the users put at setup,
+     * until stopped.
+     */
+    private void startWriting() throws InterruptedException {
+        writing = true;
+        writer = new Thread(() -> {
+            Random random = new Random(7);
+            while (writing) {
+                int i = random.nextInt(USERS);
+                String initials = String.format("u%04dw", i);
+                if (random.nextBoolean()) {
+                    store.put(user(initials, surname(i)));
+                } else {
+                    store.remove(initials);
+                }
+                writes.incrementAndGet();
+            }
+        });
+        writer.start();
+        while (writes.get() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Returns the initials of the users put at setup, in the order they were returned, checking that all users were
+     * returned in the given order.
+     */
+    private static List<String> initials(final List<User> users, final Comparator<User> order) {
+        List<String> initials = new ArrayList<>();
+        User previous = null;
+        for (User user : users) {
+            assertTrue(previous + " before " + user.getInitials(),
+                    previous == null || order.compare(previous, user) < 0);
+            previous = user;
+            if (!user.getInitials().endsWith("w")) {
+                initials.add(user.getInitials());
+            }
+        }
+        return initials;
+    }
+
+    private List<User> readPages(final Operand query, final int pageSize) {
+        List<User> users = new ArrayList<>();
+        String cookie = null;
+        do {
+            UserPage page = service.getUsersPage(query, pageSize, cookie, null);
+            users.addAll(page.getUsers());
+            cookie = page.getCookie();
+        } while (cookie != null);
+        return users;
+    }
+
+    private List<User> readSortedPages(final Operand query, final boolean descending, final int pageSize) {
+        List<User> users = new ArrayList<>();
+        String cookie = null;
+        do {
+            UserPage page = service.getSortedPage(query, "surname", descending, pageSize, cookie, null);
+            users.addAll(page.getUsers());
+            cookie = page.getCookie();
+        } while (cookie != null);
+        return users;
+    }
+
+    @Before
+    public void setUp() {
+        store = new InMemoryUserStore();
+        for (int i = 0; i < USERS; i++) {
+            store.put(user(String.format("u%04d", i), surname(i)));
+        }
+        service = new UserServiceImpl();
+        service.setStore(store);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        writing = false;
+        if (writer != null) {
+            writer.join();
+        }
+    }
+
+    @Test
+    public void pagesReturnEveryUserOnceWhileWriting() throws InterruptedException {
+        List<String> all = new ArrayList<>();
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            all.add(String.format("u%04d", i));
+            if ("n1".equals(surname(i))) {
+                selected.add(String.format("u%04d", i));
+            }
+        }
+
+        startWriting();
+        for (int pageSize : new int[] { 1, 7, 100 }) {
+            assertEquals(all, initials(readPages(null, pageSize), BY_INITIALS));
+            // walks the surname index rather than all users
+            assertEquals(selected, initials(
+                    readPages(new Operand(Operator.EQ, "surname", "n1"), pageSize), BY_INITIALS));
+        }
+    }
+
+    @Test
+    public void sortedPagesReturnEveryUserOnceWhileWriting() throws InterruptedException {
+        // from no query to a selective one: the ordered index is walked for the former, the few selected users sorted
+        // for the latter
+        Operand[] queries = new Operand[] {
+            null,
+            new Operand(Operator.STARTS, "surname", "n1"),
+            new Operand(Operator.LT, "initials", "u0003") };
+        List<Predicate<User>> matches = Arrays.asList(
+                user -> true,
+                user -> user.getSurname() != null && user.getSurname().startsWith("n1"),
+                user -> user.getInitials().compareTo("u0003") < 0);
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(user(String.format("u%04d", i), surname(i)));
+        }
+
+        startWriting();
+        for (int i = 0; i < queries.length; i++) {
+            for (boolean descending : new boolean[] { false, true }) {
+                Comparator<User> order = bySurname(descending);
+                List<String> expected = new ArrayList<>();
+                users.stream().filter(matches.get(i)).sorted(order).forEach(user -> expected.add(user.getInitials()));
+
+                for (int pageSize : new int[] { 1, 7, 100 }) {
+                    assertEquals(expected, initials(readSortedPages(queries[i], descending, pageSize), order));
+                }
+            }
+        }
+    }
+}